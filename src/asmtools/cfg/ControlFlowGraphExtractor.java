@@ -1,5 +1,11 @@
 package asmtools.cfg;
 
+import asmtools.framework.ArchiveEntry;
+import asmtools.framework.EntryReader;
+import asmtools.framework.FilteredAnalyzer;
+import asmtools.framework.MappedArchive;
+import asmtools.framework.MemberFilter;
+import asmtools.framework.ScanStatistics;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.*;
@@ -7,8 +13,6 @@ import org.objectweb.asm.util.AbstractVisitor;
 
 import java.io.*;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * This class extracts a control flow graph in .dot format from the byte code of a specified Java method.
@@ -34,6 +38,8 @@ public final class ControlFlowGraphExtractor {
         String archiveName = null;
         String methodNameAndDescriptor = "all";
         boolean exFlag = false;
+        boolean printStatistics = false;
+        ScanStatistics.register();
 
         int argLen = args.length;
         for (int i = 0; i < argLen; i++) {
@@ -57,6 +63,8 @@ public final class ControlFlowGraphExtractor {
                 }
             } else if (opName.equals("-e")) {
                 exFlag = true;
+            } else if (opName.equals("-stats")) {
+                printStatistics = true;
             } else if (opName.equals("-m")) {
                 if (++i < argLen) {
                     methodNameAndDescriptor = args[i];
@@ -70,29 +78,47 @@ public final class ControlFlowGraphExtractor {
             }
         }
 
+        // only parse the code of the methods we want a graph of
+        final String selectedMethod = methodNameAndDescriptor;
+        final MemberFilter methodFilter = new MemberFilter() {
+            public boolean acceptClass(final String internalName) {
+                return true;
+            }
+
+            public boolean acceptMethod(final String className, final String name, final String descriptor) {
+                return selectedMethod.equals("all") || selectedMethod.equals(name + descriptor);
+            }
+        };
+
         if (archiveName != null) {
-            final ZipFile zipFile = new ZipFile(archiveName);
-            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                final ZipEntry zipEntry = entries.nextElement();
-                if (zipEntry.getName().toLowerCase().endsWith(".class")) {
-                    final ClassReader cr = new ClassReader(zipFile.getInputStream(zipEntry));
-                    final ClassNode classNode = new ClassNode();
-                    cr.accept(classNode, 0);
-                    final ControlFlowGraphExtractor extractor = new ControlFlowGraphExtractor();
-                    extractor.processClass(classNode, methodNameAndDescriptor, exFlag, true);
+            final MappedArchive archive = MappedArchive.open(archiveName);
+            final EntryReader reader = new EntryReader();
+            try {
+                for (final ArchiveEntry entry : archive.getEntries()) {
+                    if (entry.getName().toLowerCase().endsWith(".class")) {
+                        final ClassReader cr = new ClassReader(reader.read(archive, entry), 0, entry.getSize());
+                        final ClassNode classNode = new ClassNode();
+                        cr.accept(FilteredAnalyzer.filter(classNode, methodFilter), 0);
+                        final ControlFlowGraphExtractor extractor = new ControlFlowGraphExtractor();
+                        extractor.processClass(classNode, methodNameAndDescriptor, exFlag, true);
+                    }
                 }
+            } finally {
+                reader.close();
             }
         } else if (classFileName != null) {
             final ClassReader cr;
             cr = new ClassReader(new FileInputStream(classFileName));
             final ClassNode classNode = new ClassNode();
-            cr.accept(classNode, 0);
+            cr.accept(FilteredAnalyzer.filter(classNode, methodFilter), 0);
             final ControlFlowGraphExtractor extractor = new ControlFlowGraphExtractor();
             extractor.processClass(classNode, methodNameAndDescriptor, exFlag, true);
         } else {
             System.out.println("Classes to analyze are not specified.");
         }
+        if (printStatistics) {
+            ScanStatistics.getInstance().printStatistics();
+        }
     }
 
     static void usage() {
@@ -103,6 +129,7 @@ public final class ControlFlowGraphExtractor {
         System.out.println("-j <path>    path to jar");
         System.out.println("-e           consider exceptions handling");
         System.out.println("-m <name>    method name");
+        System.out.println("-stats       print counters and timings");
         System.out.println("-h           help");
     }
 
@@ -572,6 +599,7 @@ public final class ControlFlowGraphExtractor {
 
             out.write("}");
             out.close();
+            ScanStatistics.getInstance().dotWritten(new File(pathToOutputFile).length());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -768,6 +796,7 @@ public final class ControlFlowGraphExtractor {
      * @param outputFlag true if .dot output is needed
      */
     void processMethod(final String className, final MethodNode method, boolean exFlag, boolean outputFlag) {
+        final long start = System.nanoTime();
 
         List<InsnRecord> insnRecords = new ArrayList<InsnRecord>();
         HashMap<Integer, Block> blocks = createBlocks(method, insnRecords, exFlag);
@@ -783,6 +812,7 @@ public final class ControlFlowGraphExtractor {
             output(blocks, className, method.name, exFlag);
         }
         blocksStat(blocks);
+        ScanStatistics.getInstance().addTime("control flow graph", start);
     }
 
 }
\ No newline at end of file
@@ -1,137 +1,611 @@
 package asmtools.classhierarchy;
 
 import asmtools.framework.*;
-import org.objectweb.asm.tree.*;
-import org.objectweb.asm.util.AbstractVisitor;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.EmptyVisitor;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Build a call graph (as part of the class hierarchy) consisting of CallSite
  * nodes pointing to Method nodes.
+ * <p/>
+ * By default the targets of a call site are found with Class Hierarchy
+ * Analysis (CHA), each call site on its own as soon as it is recorded. With
+ * Rapid Type Analysis (RTA, see setRapidTypeAnalysis()) the call sites are
+ * only recorded, and resolveCallSites() then resolves those in methods
+ * reachable from the entry points, keeping only the targets that can be
+ * invoked on instances of classes that reachable methods instantiate.
  *
  * @author Anna.Yudina@usi.ch
  */
-public final class CallGraphBuilder implements ClassAnalyzer {
+public final class CallGraphBuilder implements ClassVisitorAnalyzer {
 
     private final ClassHierarchy hierarchy;
+    private final List<Method> entryPoints;
+    private boolean rapidTypeAnalysis;
+    // memoized CHA results
+    private final ConcurrentHashMap<Key, Entry> targetSets;
+    private volatile int targetSetsVersion;
 
     public CallGraphBuilder(final ClassHierarchy hierarchy) {
         this.hierarchy = hierarchy;
+        this.entryPoints = new ArrayList<Method>();
+        this.targetSets = new ConcurrentHashMap<Key, Entry>();
+        this.targetSetsVersion = hierarchy.getVersion();
     }
 
-    public void analyze(final String location, final ClassNode classNode) {
-        try {
-            final ClassType classType = hierarchy.getOrCreateClass(classNode.name);
-
-            @SuppressWarnings("unchecked")
-            final List<MethodNode> methodNodes = (List<MethodNode>) classNode.methods;
-            for (final MethodNode methodNode : methodNodes) {
-                final Method method = classType.getMethod(methodNode.name, methodNode.desc);
-                if (method != null) {
-                    final InsnList instructions = methodNode.instructions;
-                    for (int i = 0; i < instructions.size(); i++) {
-                        final AbstractInsnNode insnNode = instructions.get(i);
-                        final int opcode = insnNode.getOpcode();
-                        final String mnemonic = opcode == -1 ? "" : AbstractVisitor.OPCODES[insnNode.getOpcode()];
-
-                        if (insnNode.getType() == AbstractInsnNode.METHOD_INSN) {
-                            // Opcodes: INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE or INVOKEDYNAMIC.
-                            final String owner = ((MethodInsnNode) insnNode).owner;
-                            final String name = ((MethodInsnNode) insnNode).name;
-                            final String desc = ((MethodInsnNode) insnNode).desc;
-                            final CallSite callSite = new CallSite(opcode, owner, name, desc);
-
-                            if (mnemonic.equals("INVOKEVIRTUAL")) {
-                                chaVirtual(
-                                        hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassName()),
-                                        name, desc, callSite);
-                            } else if (mnemonic.equals("INVOKESPECIAL")) {
-                                chaUp(
-                                        hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassName()),
-                                        name, desc, callSite);
-                            } else if (mnemonic.equals("INVOKESTATIC")) {
-                                ClassType targetType =
-                                        hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassName());
-                                if (targetType.isResolved()) {
-                                    callSite.addPossibleTargetClass(targetType);
-                                }
-                            } else if (mnemonic.equals("INVOKEINTERFACE")) {
-                                chaInterface(
-                                        hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassName()),
-                                        name, desc, callSite);
-                            } else if (mnemonic.equals("INVOKEDYNAMIC")) {
-                            }
-                            method.addCallSite(callSite);
-                        }
+    /**
+     * If set, use Rapid Type Analysis instead of Class Hierarchy Analysis:
+     * call sites are not resolved while scanning, call resolveCallSites()
+     * once all are recorded.
+     */
+    public void setRapidTypeAnalysis(final boolean rapidTypeAnalysis) {
+        this.rapidTypeAnalysis = rapidTypeAnalysis;
+    }
+
+    /**
+     * Does this builder only record the call sites while scanning, so
+     * resolveCallSites() has to be called once the scan is done? That is
+     * the case with Rapid Type Analysis, and when the hierarchy has a
+     * ClassResolver: it still creates (and resolves) classes while the call
+     * sites are recorded, so resolving a call site right away would only see
+     * the subtypes created so far.
+     */
+    public boolean isResolvingLater() {
+        return rapidTypeAnalysis || hierarchy.getClassResolver() != null;
+    }
+
+    /**
+     * Add a method where Rapid Type Analysis starts. Without entry points it
+     * starts at all main methods, or if there are none (e.g. in a library)
+     * at all methods.
+     */
+    public void addEntryPoint(final Method method) {
+        entryPoints.add(method);
+    }
+
+    public boolean isThreadSafe() {
+        // ClassHierarchy, its MethodResolver and SubtypeIndex are thread-safe,
+        // and each call site is resolved by the thread that records it
+        return true;
+    }
+
+    public int getParsingOptions() {
+        // call instructions only, no line numbers, local variables or frames
+        return ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+    }
+
+    public ClassVisitor getClassVisitor(final String location) {
+        return new CallGraphClassVisitor();
+    }
+
+    /**
+     * Get a MethodVisitor that adds a CallSite for each call instruction it
+     * visits to method, without computing the possible targets yet (see
+     * resolve()).
+     */
+    static MethodVisitor createCallSiteRecorder(final ClassHierarchy hierarchy, final Method method) {
+        return new CallSiteRecorder(hierarchy, method, null);
+    }
+
+    /**
+     * Resolve the call sites of all methods of all resolved classes in the
+     * hierarchy. Use this after a single pass of a ClassHierarchyBuilder that
+     * recorded call sites, instead of scanning all archives again with this
+     * analyzer.
+     */
+    public void resolveCallSites() throws TypeInconsistencyException {
+        final long start = System.nanoTime();
+        // resolving may add (unresolved) classes to the hierarchy, so take a copy first
+        final List<ClassType> classTypes = new ArrayList<ClassType>();
+        for (final Type type : hierarchy.getTypes()) {
+            if (type instanceof ClassType && type.isResolved()) {
+                classTypes.add((ClassType) type);
+            }
+        }
+        // create all target classes first, so the hierarchy (and its subtype index) stays the same
+        for (final ClassType classType : classTypes) {
+            for (final Method method : classType.getMethods()) {
+                for (final CallSite callSite : method.getCallSites()) {
+                    hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassNameId());
+                }
+            }
+        }
+        if (rapidTypeAnalysis) {
+            new RapidTypeAnalysis().run(getEntryPoints(classTypes));
+        } else {
+            for (final ClassType classType : classTypes) {
+                for (final Method method : classType.getMethods()) {
+                    for (final CallSite callSite : method.getCallSites()) {
+                        resolve(callSite);
                     }
                 }
             }
-        } catch (final TypeInconsistencyException ex) {
-            System.err.println(ex);
         }
+        ScanStatistics.getInstance().addTime("resolve call sites", start);
     }
 
-    private boolean containsMethod(final ClassType classType,
-                                   final String name,
-                                   final String desc) {
-        boolean found = false;
-        Iterator<Method> itMethods = classType.getMethods().iterator();
-        while (itMethods.hasNext() && !found) {
-            final Method method = itMethods.next();
-            if (method.getName().equals(name)
-                    && method.getDescriptor().equals(desc)
-                    && !method.isAbstract()) {
-                found = true;
+    /**
+     * Set the possible target classes of the given call site using Class
+     * Hierarchy Analysis. The targets are computed once per (opcode,
+     * declared target class, name, descriptor) and version of the
+     * hierarchy, and all call sites with the same targets share one
+     * TargetSet.
+     */
+    public void resolve(final CallSite callSite) throws TypeInconsistencyException {
+        // (creating the class may resolve it, and change the version)
+        final ClassType targetType = hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassNameId());
+        final int version = checkVersion();
+        final Key key = new Key(callSite.getOpcode(), callSite.getDeclaredTargetClassNameId(),
+                callSite.getTargetMethodNameId(), callSite.getTargetMethodDescriptorId());
+        final Entry entry = targetSets.get(key);
+        final TargetSet targets;
+        if (entry != null && entry.version == version) {
+            targets = entry.targets;
+        } else {
+            targets = hierarchy.getTargetSet(cha(callSite.getOpcode(), targetType,
+                    callSite.getTargetMethodNameId(), callSite.getTargetMethodDescriptorId()));
+            targetSets.put(key, new Entry(version, targets));
+        }
+        callSite.setPossibleTargetClasses(targets);
+        ScanStatistics.getInstance().callSiteResolved(targets.size());
+    }
+
+    /**
+     * Compute the possible target classes of a call with the given opcode.
+     */
+    private Collection<ClassType> cha(final int opcode,
+                                      final ClassType targetType,
+                                      final int name,
+                                      final int desc) {
+        final ArrayList<ClassType> targets = new ArrayList<ClassType>();
+        switch (opcode) {
+            case Opcodes.INVOKEVIRTUAL:
+                chaVirtual(targetType, name, desc, targets);
+                break;
+            case Opcodes.INVOKESPECIAL:
+                chaUp(targetType, name, desc, targets);
+                break;
+            case Opcodes.INVOKESTATIC:
+                if (targetType.isResolved()) {
+                    targets.add(targetType);
+                }
+                break;
+            case Opcodes.INVOKEINTERFACE:
+                chaInterface(targetType, name, desc, targets);
+                break;
+            default:
+                // INVOKEDYNAMIC: no static target
+                break;
+        }
+        return targets;
+    }
+
+    /**
+     * Drop memoized target sets if the hierarchy changed, and return the
+     * current version.
+     */
+    private int checkVersion() {
+        final int version = hierarchy.getVersion();
+        if (version != targetSetsVersion) {
+            synchronized (this) {
+                if (version != targetSetsVersion) {
+                    targetSets.clear();
+                    targetSetsVersion = version;
+                }
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Get the entry points added, or else the main methods of the given
+     * classes, or else all their methods.
+     */
+    private List<Method> getEntryPoints(final List<ClassType> classTypes) {
+        if (!entryPoints.isEmpty()) {
+            return entryPoints;
+        }
+        final List<Method> mainMethods = new ArrayList<Method>();
+        final List<Method> allMethods = new ArrayList<Method>();
+        for (final ClassType classType : classTypes) {
+            final Method main = classType.getMethod("main", "([Ljava/lang/String;)V");
+            if (main != null && main.isStatic()) {
+                mainMethods.add(main);
             }
+            allMethods.addAll(classType.getMethods());
         }
-        return found;
+        return mainMethods.isEmpty() ? allMethods : mainMethods;
+    }
+
+    private boolean containsMethod(final ClassType classType,
+                                   final int name,
+                                   final int desc) {
+        return classType.hasConcreteMethod(name, desc);
     }
 
     private void chaVirtual(final ClassType classType,
-                            final String name,
-                            final String desc, final CallSite callSite) {
-        chaUp(classType, name, desc, callSite);
-        chaVirtualDown(classType, name, desc, callSite);
+                            final int name,
+                            final int desc, final Collection<ClassType> targets) {
+        chaUp(classType, name, desc, targets);
+        chaVirtualDown(classType, name, desc, targets);
     }
 
+    /**
+     * Add the class whose method is invoked on instances of exactly classType
+     * (which may be a superclass, or for a default method a superinterface).
+     */
     private void chaUp(final ClassType classType,
-                       final String name,
-                       final String desc,
-                       final CallSite callSite) {
-        if (containsMethod(classType, name, desc)) {
-            callSite.addPossibleTargetClass(classType);
-        } else {
-            if (!(classType.getSuperClass() == null)) {
-                chaUp(classType.getSuperClass(), name, desc, callSite);
-            }
+                       final int name,
+                       final int desc,
+                       final Collection<ClassType> targets) {
+        final Method method = hierarchy.getMethodResolver().selectMethod(classType, name, desc);
+        if (method != null) {
+            targets.add(method.getDeclaringClass());
         }
     }
 
+    /**
+     * Add all transitive subtypes of classType that declare the method.
+     */
     private void chaVirtualDown(final ClassType classType,
-                                final String name,
-                                final String desc,
-                                final CallSite callSite) {
-        for (ClassType subType : classType.getSubTypes()) {
-            if (containsMethod(subType, name, desc)) {
-                callSite.addPossibleTargetClass(subType);
-                chaVirtualDown(subType, name, desc, callSite);
+                                final int name,
+                                final int desc,
+                                final Collection<ClassType> targets) {
+        final SubtypeIndex index = hierarchy.getSubtypeIndex();
+        for (int p = index.nextSubtype(classType, -1); p != -1; p = index.nextSubtype(classType, p)) {
+            final ClassType subType = index.getType(p);
+            if (subType != classType && containsMethod(subType, name, desc)) {
+                targets.add(subType);
             }
         }
     }
 
+    /**
+     * Add the targets in all classes implementing the interface: the method
+     * each topmost implementing class selects, and the methods declared by
+     * their subclasses.
+     */
     private void chaInterface(final ClassType classType,
-                              final String name,
-                              final String desc,
-                              final CallSite callSite) {
+                              final int name,
+                              final int desc,
+                              final Collection<ClassType> targets) {
         if (classType.isInterface()) {
-            for (ClassType classType1 : classType.getSubTypes()) {
-                chaInterface(classType1, name, desc, callSite);
+            final SubtypeIndex index = hierarchy.getSubtypeIndex();
+            for (int p = index.nextSubtype(classType, -1); p != -1; p = index.nextSubtype(classType, p)) {
+                final ClassType subType = index.getType(p);
+                if (!subType.isInterface()) {
+                    final ClassType superClass = subType.getSuperClass();
+                    if (superClass == null || !index.isSubtypeOf(superClass, classType)) {
+                        chaUp(subType, name, desc, targets);
+                    } else if (containsMethod(subType, name, desc)) {
+                        targets.add(subType);
+                    }
+                }
             }
         } else {
-            chaVirtual(classType, name, desc, callSite);
+            chaVirtual(classType, name, desc, targets);
+        }
+    }
+
+
+
+    /**
+     * Rapid Type Analysis: a worklist of the methods reachable from the
+     * entry points. Processing a method instantiates its classes and
+     * resolves its call sites; a virtual or interface call site targets the
+     * method each instantiated subtype of its declared target class selects.
+     * A class instantiated later adds its targets to the virtual and
+     * interface call sites processed before, so when the worklist is empty
+     * the reachable methods and instantiated classes are a fixed point.
+     */
+    private final class RapidTypeAnalysis {
+
+        private final SubtypeIndex index;
+        private final HashSet<Method> reachable;
+        private final List<Method> worklist;
+        private final HashSet<ClassType> instantiated;
+        private final List<ClassType> instantiatedInOrder;
+        // virtual and interface call sites of the reachable methods processed so far
+        private final List<CallSite> dispatchCallSites;
+        // the targets found so far, set on the call sites at the end
+        private final HashMap<CallSite, HashSet<ClassType>> targetsByCallSite;
+        private final int clinitNameId;
+        private final int clinitDescriptorId;
+
+        RapidTypeAnalysis() {
+            index = hierarchy.getSubtypeIndex();
+            reachable = new HashSet<Method>();
+            worklist = new ArrayList<Method>();
+            instantiated = new HashSet<ClassType>();
+            instantiatedInOrder = new ArrayList<ClassType>();
+            dispatchCallSites = new ArrayList<CallSite>();
+            targetsByCallSite = new HashMap<CallSite, HashSet<ClassType>>();
+            clinitNameId = hierarchy.getSymbolTable().intern("<clinit>");
+            clinitDescriptorId = hierarchy.getSymbolTable().intern("()V");
+        }
+
+        void run(final List<Method> entryPoints) throws TypeInconsistencyException {
+            for (final Method entryPoint : entryPoints) {
+                reach(entryPoint);
+            }
+            while (!worklist.isEmpty()) {
+                final Method method = worklist.remove(worklist.size() - 1);
+                for (final ClassType classType : method.getInstantiatedClasses()) {
+                    instantiate(classType);
+                }
+                for (final CallSite callSite : method.getCallSites()) {
+                    resolve(callSite);
+                }
+            }
+            // the targets are complete: share them
+            for (final Method method : reachable) {
+                for (final CallSite callSite : method.getCallSites()) {
+                    final HashSet<ClassType> targets = targetsByCallSite.get(callSite);
+                    callSite.setPossibleTargetClasses(targets == null
+                            ? TargetSet.EMPTY : hierarchy.getTargetSet(targets));
+                    ScanStatistics.getInstance().callSiteResolved(callSite.getPossibleTargetClasses().size());
+                }
+            }
+        }
+
+        private void reach(final Method method) {
+            if (method != null && reachable.add(method)) {
+                worklist.add(method);
+            }
+        }
+
+        /**
+         * Reach the static initializers of the class and its superclasses.
+         */
+        private void initialize(final ClassType classType) {
+            for (ClassType c = classType; c != null; c = c.getSuperClass()) {
+                reach(c.getMethod(clinitNameId, clinitDescriptorId));
+            }
         }
+
+        private void instantiate(final ClassType classType) throws TypeInconsistencyException {
+            if (!instantiated.add(classType)) {
+                return;
+            }
+            instantiatedInOrder.add(classType);
+            initialize(classType);
+            for (final CallSite callSite : dispatchCallSites) {
+                if (index.isSubtypeOf(classType, getDeclaredTargetClass(callSite))) {
+                    dispatch(classType, callSite);
+                }
+            }
+        }
+
+        private void resolve(final CallSite callSite) throws TypeInconsistencyException {
+            final ClassType targetType = getDeclaredTargetClass(callSite);
+            switch (callSite.getOpcode()) {
+                case Opcodes.INVOKEVIRTUAL:
+                case Opcodes.INVOKEINTERFACE:
+                    dispatchCallSites.add(callSite);
+                    // walk whichever is smaller: the instantiated classes, or the subtypes
+                    if (instantiatedInOrder.size() < index.getSubtypeCount(targetType)) {
+                        for (final ClassType classType : instantiatedInOrder) {
+                            if (index.isSubtypeOf(classType, targetType)) {
+                                dispatch(classType, callSite);
+                            }
+                        }
+                    } else {
+                        for (int p = index.nextSubtype(targetType, -1); p != -1; p = index.nextSubtype(targetType, p)) {
+                            final ClassType subType = index.getType(p);
+                            if (instantiated.contains(subType)) {
+                                dispatch(subType, callSite);
+                            }
+                        }
+                    }
+                    break;
+                case Opcodes.INVOKESPECIAL:
+                    dispatch(targetType, callSite);
+                    break;
+                case Opcodes.INVOKESTATIC:
+                    if (targetType.isResolved()) {
+                        addTarget(callSite, targetType);
+                        reach(hierarchy.getMethodResolver().resolveMethod(targetType,
+                                callSite.getTargetMethodNameId(), callSite.getTargetMethodDescriptorId()));
+                        initialize(targetType);
+                    }
+                    break;
+                default:
+                    // INVOKEDYNAMIC: no static target
+                    break;
+            }
+        }
+
+        /**
+         * Add the method invoked on instances of exactly the given class.
+         */
+        private void dispatch(final ClassType receiver, final CallSite callSite) {
+            final Method method = hierarchy.getMethodResolver().selectMethod(receiver,
+                    callSite.getTargetMethodNameId(), callSite.getTargetMethodDescriptorId());
+            if (method != null) {
+                addTarget(callSite, method.getDeclaringClass());
+                reach(method);
+            }
+        }
+
+        private void addTarget(final CallSite callSite, final ClassType targetClass) {
+            HashSet<ClassType> targets = targetsByCallSite.get(callSite);
+            if (targets == null) {
+                targets = new HashSet<ClassType>();
+                targetsByCallSite.put(callSite, targets);
+            }
+            targets.add(targetClass);
+        }
+
+        private ClassType getDeclaredTargetClass(final CallSite callSite) throws TypeInconsistencyException {
+            // (created before the analysis started)
+            return hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassNameId());
+        }
+
+    }
+
+
+    /**
+     * Adds the call sites of the methods of one (already resolved) class.
+     */
+    private final class CallGraphClassVisitor extends EmptyVisitor {
+
+        private ClassType classType;
+
+        public void visit(final int version,
+                          final int access,
+                          final String name,
+                          final String signature,
+                          final String superName,
+                          final String[] interfaces) {
+            try {
+                classType = hierarchy.getOrCreateClass(name);
+            } catch (final TypeInconsistencyException ex) {
+                System.err.println(ex);
+            }
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            return null;
+        }
+
+        public FieldVisitor visitField(final int access,
+                                       final String name,
+                                       final String desc,
+                                       final String signature,
+                                       final Object value) {
+            return null;
+        }
+
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String desc,
+                                         final String signature,
+                                         final String[] exceptions) {
+            if (classType == null) {
+                return null;
+            }
+            final Method method = classType.getMethod(name, desc);
+            // resolveCallSites() may have to resolve the call sites once all are recorded
+            return method == null ? null
+                    : new CallSiteRecorder(hierarchy, method, isResolvingLater() ? null : CallGraphBuilder.this);
+        }
+
+    }
+
+
+    /**
+     * Adds a CallSite for each call instruction of a method, and resolves it
+     * right away if it has a CallGraphBuilder to do so. Also adds the classes
+     * the method instantiates.
+     */
+    private static final class CallSiteRecorder extends EmptyVisitor {
+
+        private final ClassHierarchy hierarchy;
+        private final Method method;
+        private final CallGraphBuilder resolver;
+
+        CallSiteRecorder(final ClassHierarchy hierarchy, final Method method, final CallGraphBuilder resolver) {
+            this.hierarchy = hierarchy;
+            this.method = method;
+            this.resolver = resolver;
+        }
+
+        public AnnotationVisitor visitAnnotationDefault() {
+            return null;
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            return null;
+        }
+
+        public AnnotationVisitor visitParameterAnnotation(final int parameter, final String desc, final boolean visible) {
+            return null;
+        }
+
+        public void visitTypeInsn(final int opcode, final String type) {
+            if (opcode == Opcodes.NEW) {
+                try {
+                    method.addInstantiatedClass(hierarchy.getOrCreateClass(type));
+                } catch (final TypeInconsistencyException ex) {
+                    System.err.println(ex);
+                }
+            }
+        }
+
+        public void visitMethodInsn(final int opcode, final String owner, final String name, final String desc) {
+            // Opcodes: INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE or INVOKEDYNAMIC.
+            final CallSite callSite = new CallSite(method, opcode, owner, name, desc);
+            if (resolver != null) {
+                try {
+                    resolver.resolve(callSite);
+                } catch (final TypeInconsistencyException ex) {
+                    System.err.println(ex);
+                }
+            }
+            method.addCallSite(callSite);
+        }
+
+    }
+
+
+    private static final class Key {
+
+        private final int opcode;
+        private final int classNameId;
+        private final int nameId;
+        private final int descriptorId;
+
+        Key(final int opcode, final int classNameId, final int nameId, final int descriptorId) {
+            this.opcode = opcode;
+            this.classNameId = classNameId;
+            this.nameId = nameId;
+            this.descriptorId = descriptorId;
+        }
+
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return opcode == other.opcode
+                    && classNameId == other.classNameId
+                    && nameId == other.nameId
+                    && descriptorId == other.descriptorId;
+        }
+
+        public int hashCode() {
+            return ((opcode * 31 + classNameId) * 31 + nameId) * 31 + descriptorId;
+        }
+
+    }
+
+
+    /**
+     * A memoized (shared) target set, valid for one version of the
+     * hierarchy.
+     */
+    private static final class Entry {
+
+        private final int version;
+        private final TargetSet targets;
+
+        Entry(final int version, final TargetSet targets) {
+            this.version = version;
+            this.targets = targets;
+        }
+
     }
 
-}
+}
\ No newline at end of file
@@ -1,65 +1,134 @@
 package asmtools.classhierarchy;
 
 import asmtools.framework.*;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.MethodNode;
-
-import java.util.List;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
 
 /**
  * Build a class hierarchy (including methods).
  *
  * @author Anna.Yudina@usi.ch
  */
-public final class ClassHierarchyBuilder implements ClassAnalyzer {
+public final class ClassHierarchyBuilder implements ClassVisitorAnalyzer {
 
     private final ClassHierarchy classHierarchy;
+    private boolean recordCallSites;
 
     public ClassHierarchyBuilder() {
         this.classHierarchy = new ClassHierarchy();
     }
 
+    /**
+     * If set, also add the (unresolved) call sites of each method while building
+     * the hierarchy, so a CallGraphBuilder can resolve them afterwards with
+     * resolveCallSites() instead of scanning all classes a second time.
+     */
+    public void setRecordCallSites(final boolean recordCallSites) {
+        this.recordCallSites = recordCallSites;
+    }
+
     public ClassHierarchy getClassHierarchy() {
         return classHierarchy;
     }
 
-    public void analyze(final String location, final ClassNode clazz) {
-        try {
-            ClassType classType = classHierarchy.getOrCreateClass(clazz.name);
-            if (classType.isResolved()) {
-                return;
-            }
-            classType.setLocation(location);
-
-            // extract modifiers
-            final int modifiers = clazz.access;
-            classType.setModifiers(modifiers);
-
-            // extract superclass
-            final String superClassName = clazz.superName;
-            ClassType superClassType = classHierarchy.getOrCreateClass(superClassName);
-            classType.setSuperClass(superClassType);
-
-            // extract interfaces
-            @SuppressWarnings("unchecked")
-            final List<String> interfaces = clazz.interfaces;
-            for (String interfaceName : interfaces) {
-                ClassType interfaceClassType = classHierarchy.getOrCreateClass(interfaceName);
-                classType.addInterface(interfaceClassType);
+    public boolean isThreadSafe() {
+        // ClassHierarchy is thread-safe, and each class is read in by the thread that claims it
+        return true;
+    }
+
+    public int getParsingOptions() {
+        // headers and method signatures only, unless we also record call sites
+        return (recordCallSites ? 0 : ClassReader.SKIP_CODE) | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+    }
+
+    public ClassVisitor getClassVisitor(final String location) {
+        return new HierarchyClassVisitor(location);
+    }
+
+
+    /**
+     * Adds one class to the hierarchy.
+     */
+    private final class HierarchyClassVisitor extends EmptyVisitor {
+
+        private final String location;
+        private ClassType classType;
+
+        HierarchyClassVisitor(final String location) {
+            this.location = location;
+        }
+
+        public void visit(final int version,
+                          final int access,
+                          final String name,
+                          final String signature,
+                          final String superName,
+                          final String[] interfaces) {
+            try {
+                classType = classHierarchy.getOrCreateClass(name);
+                if (!classType.claim()) {
+                    // already read (or being read) from another location, ignore the rest of this class
+                    classType = null;
+                    return;
+                }
+                classType.setLocation(location);
+
+                // extract modifiers
+                classType.setModifiers(access);
+
+                // extract superclass (java/lang/Object has none)
+                if (superName != null) {
+                    ClassType superClassType = classHierarchy.getOrCreateClass(superName);
+                    classType.setSuperClass(superClassType);
+                }
+
+                // extract interfaces
+                for (String interfaceName : interfaces) {
+                    ClassType interfaceClassType = classHierarchy.getOrCreateClass(interfaceName);
+                    classType.addInterface(interfaceClassType);
+                }
+            } catch (final TypeInconsistencyException ex) {
+                System.err.println(ex);
+                classType = null;
             }
+        }
 
-            // extract methods
-            @SuppressWarnings("unchecked")
-            final List<MethodNode> methods = clazz.methods;
-            for (MethodNode methodNode : methods) {
-                Method method = new Method(clazz.name, methodNode.name, methodNode.desc, methodNode.access);
-                classType.addMethod(method);
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            return null;
+        }
+
+        public FieldVisitor visitField(final int access,
+                                       final String name,
+                                       final String desc,
+                                       final String signature,
+                                       final Object value) {
+            return null;
+        }
+
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String desc,
+                                         final String signature,
+                                         final String[] exceptions) {
+            if (classType == null) {
+                return null;
             }
+            // extract methods
+            Method method = new Method(classType, name, desc, access);
+            classType.addMethod(method);
+            return recordCallSites ? CallGraphBuilder.createCallSiteRecorder(classHierarchy, method) : null;
+        }
 
-            classType.setResolved();
-        } catch (final TypeInconsistencyException ex) {
-            System.err.println(ex);
+        public void visitEnd() {
+            if (classType != null) {
+                classType.setResolved();
+            }
         }
+
     }
 
 }
@@ -1,10 +1,26 @@
 package asmtools.classhierarchy;
 
 import asmtools.framework.ArchiveScanner;
+import asmtools.framework.ClassHierarchy;
+import asmtools.framework.ClassResolver;
+import asmtools.framework.ClasspathClassResolver;
+import asmtools.framework.ClassSources;
+import asmtools.framework.ClasspathIndex;
+import asmtools.framework.ColumnarHierarchy;
+import asmtools.framework.EntryFilter;
+import asmtools.framework.FrozenHierarchy;
+import asmtools.framework.HierarchySnapshot;
+import asmtools.framework.SnapshotClassResolver;
+import asmtools.framework.ScanCache;
+import asmtools.framework.ScanResult;
+import asmtools.framework.ScanStatistics;
 import asmtools.framework.TypeInconsistencyException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Main class.
@@ -14,23 +30,173 @@ import java.io.IOException;
 public final class ClassHierarchyMain {
 
     public static void main(final String[] args) throws IOException, TypeInconsistencyException {
+        ScanStatistics.register();
         final ArchiveScanner scanner = new ArchiveScanner();
+        final List<String> archives = new ArrayList<String>();
+        final List<String> classpaths = new ArrayList<String>();
+        boolean singlePass = false;
+        boolean lazy = false;
+        boolean rapidTypeAnalysis = false;
+        boolean columnar = false;
+        ScanCache cache = null;
+        String loadSnapshot = null;
+        String saveSnapshot = null;
+        String platformSnapshot = null;
+        long timeoutMillis = 0;
+        boolean printStatistics = false;
+        boolean printShadowed = false;
 
-        // phase 1: build inheritance hierarchy
-        final ClassHierarchyBuilder classHierarchyBuilder = new ClassHierarchyBuilder();
-        scanner.addAnalyzer(classHierarchyBuilder);
-        for (String arg : args) {
-            scanner.scan(arg);
+        final int argLen = args.length;
+        for (int i = 0; i < argLen; i++) {
+            final String opName = args[i];
+            if (opName.equals("-h")) {
+                usage();
+                return;
+            } else if (opName.equals("-f")) {
+                singlePass = true;
+            } else if (opName.equals("-lazy")) {
+                lazy = true;
+            } else if (opName.equals("-rta")) {
+                rapidTypeAnalysis = true;
+            } else if (opName.equals("-columnar")) {
+                columnar = true;
+            } else if (opName.equals("-stats")) {
+                printStatistics = true;
+                ScanStatistics.getInstance().setAnalyzersTimed(true);
+            } else if (opName.equals("-shadowed")) {
+                printShadowed = true;
+            } else if (opName.equals("-cache")) {
+                if (++i < argLen) {
+                    cache = new ScanCache(args[i]);
+                    scanner.setCache(cache);
+                } else {
+                    usage();
+                    return;
+                }
+            } else if (opName.equals("-load")) {
+                if (++i < argLen) {
+                    loadSnapshot = args[i];
+                } else {
+                    usage();
+                    return;
+                }
+            } else if (opName.equals("-save")) {
+                if (++i < argLen) {
+                    saveSnapshot = args[i];
+                } else {
+                    usage();
+                    return;
+                }
+            } else if (opName.equals("-platform")) {
+                if (++i < argLen) {
+                    platformSnapshot = args[i];
+                } else {
+                    usage();
+                    return;
+                }
+            } else if (opName.equals("-include") || opName.equals("-exclude")) {
+                if (++i < argLen) {
+                    if (scanner.getEntryFilter() == null) {
+                        scanner.setEntryFilter(new EntryFilter());
+                    }
+                    if (opName.equals("-include")) {
+                        scanner.getEntryFilter().include(args[i]);
+                    } else {
+                        scanner.getEntryFilter().exclude(args[i]);
+                    }
+                } else {
+                    usage();
+                    return;
+                }
+            } else if (opName.equals("-cp")) {
+                if (++i < argLen) {
+                    classpaths.add(args[i]);
+                } else {
+                    usage();
+                    return;
+                }
+            } else if (opName.equals("-a")) {
+                if (++i < argLen) {
+                    scanner.setArchiveParallelism(Integer.parseInt(args[i]));
+                } else {
+                    usage();
+                    return;
+                }
+            } else if (opName.equals("-t")) {
+                if (++i < argLen) {
+                    timeoutMillis = 1000L * Integer.parseInt(args[i]);
+                } else {
+                    usage();
+                    return;
+                }
+            } else if (opName.equals("-p")) {
+                if (++i < argLen) {
+                    scanner.setParallelism(Integer.parseInt(args[i]));
+                } else {
+                    usage();
+                    return;
+                }
+            } else {
+                archives.add(opName);
+            }
+        }
+        if (columnar && singlePass) {
+            // call sites are recorded by the ClassHierarchyBuilder
+            System.err.println("-columnar needs two passes, it cannot be combined with -f");
+            usage();
+            return;
         }
-        scanner.removeAnalyzer(classHierarchyBuilder);
 
-        // phase 2: add call sites and edges
-        final CallGraphBuilder callGraphBuilder =
-                new CallGraphBuilder(classHierarchyBuilder.getClassHierarchy());
-        scanner.addAnalyzer(callGraphBuilder);
-        for (String arg : args) {
-            scanner.scan(arg);
+        final ClassHierarchy classHierarchy;
+        if (loadSnapshot != null) {
+            // a snapshot contains the result of both phases
+            classHierarchy = HierarchySnapshot.open(loadSnapshot).toClassHierarchy();
+        } else {
+            // class paths first
+            final List<String> paths = new ArrayList<String>();
+            for (String classpath : classpaths) {
+                paths.addAll(ClassSources.splitClasspath(classpath));
+            }
+            paths.addAll(archives);
+            // only needed to read classes on demand, or to list the shadowed ones
+            // (then the scanner also reads each class only from the first element of the class path containing it)
+            final ClasspathIndex classpathIndex = lazy || printShadowed ? ClasspathIndex.build(paths) : null;
+            if (classpathIndex != null) {
+                scanner.setClasspathIndex(classpathIndex);
+            }
+            if (printShadowed) {
+                classpathIndex.printShadowedClasses(System.out);
+            }
+            ClassResolver classResolver = null;
+            if (platformSnapshot != null) {
+                // resolve JDK classes from the index written by PlatformIndexer
+                classResolver = new SnapshotClassResolver(HierarchySnapshot.open(platformSnapshot));
+            }
+            if (lazy) {
+                // scan only the archives, read anything else they need from the class path
+                final ClasspathClassResolver classpathResolver = new ClasspathClassResolver(classpathIndex, classResolver);
+                classpathResolver.setScanned(archives, scanner.getEntryFilter());
+                try {
+                    classHierarchy = build(scanner, archives, singlePass, rapidTypeAnalysis, columnar, classpathResolver, timeoutMillis);
+                } finally {
+                    classpathResolver.close();
+                }
+                if (printStatistics) {
+                    System.out.println("Read " + classpathResolver.getResolvedCount() + " of "
+                            + classpathIndex.getClassCount() + " classes on the class path on demand");
+                }
+            } else {
+                classHierarchy = build(scanner, paths, singlePass, rapidTypeAnalysis, columnar, classResolver, timeoutMillis);
+            }
+            if (cache != null) {
+                cache.save();
+            }
         }
+        if (saveSnapshot != null) {
+            HierarchySnapshot.write(classHierarchy, saveSnapshot);
+        }
+        // the hierarchy is complete, only query it from now on
+        final FrozenHierarchy frozenHierarchy = classHierarchy.freeze();
 
         // dump info about structure
         if (!(new File("asm-out")).exists()) {
@@ -38,10 +204,91 @@ public final class ClassHierarchyMain {
             new File("asm-out").mkdir();
         }
 
-        new Dumper().dumpDot(classHierarchyBuilder.getClassHierarchy(), "asm-out/class_hierarchy.dot");
+        new Dumper().dumpDot(frozenHierarchy, "asm-out/class_hierarchy.dot");
 
         // print statistics
-        // stats.printStatistics();
+        if (printStatistics) {
+            ScanStatistics.getInstance().printStatistics();
+        }
+    }
+
+    private static ClassHierarchy build(final ArchiveScanner scanner,
+                                        final List<String> paths,
+                                        final boolean singlePass,
+                                        final boolean rapidTypeAnalysis,
+                                        final boolean columnar,
+                                        final ClassResolver classResolver,
+                                        final long timeoutMillis) throws IOException, TypeInconsistencyException {
+        // phase 1: build inheritance hierarchy
+        final ClassHierarchy classHierarchy;
+        if (columnar) {
+            // in columns off the heap, with ClassTypes only for the classes phase 2 asks for
+            final ColumnarHierarchyBuilder columnarHierarchyBuilder = new ColumnarHierarchyBuilder();
+            scanner.addAnalyzer(columnarHierarchyBuilder);
+            scan(scanner, paths, timeoutMillis);
+            scanner.removeAnalyzer(columnarHierarchyBuilder);
+            final ColumnarHierarchy store = columnarHierarchyBuilder.getColumnarHierarchy();
+            classHierarchy = store.newView(classResolver);
+        } else {
+            final ClassHierarchyBuilder classHierarchyBuilder = new ClassHierarchyBuilder();
+            classHierarchyBuilder.getClassHierarchy().setClassResolver(classResolver);
+            classHierarchyBuilder.setRecordCallSites(singlePass);
+            scanner.addAnalyzer(classHierarchyBuilder);
+            scan(scanner, paths, timeoutMillis);
+            scanner.removeAnalyzer(classHierarchyBuilder);
+            classHierarchy = classHierarchyBuilder.getClassHierarchy();
+        }
+
+        // phase 2: add call sites and edges
+        final CallGraphBuilder callGraphBuilder = new CallGraphBuilder(classHierarchy);
+        callGraphBuilder.setRapidTypeAnalysis(rapidTypeAnalysis);
+        if (singlePass) {
+            // call sites were recorded in phase 1, only resolve them
+            callGraphBuilder.resolveCallSites();
+        } else {
+            scanner.addAnalyzer(callGraphBuilder);
+            scan(scanner, paths, timeoutMillis);
+            if (callGraphBuilder.isResolvingLater()) {
+                // e.g. RTA needs all call sites
+                callGraphBuilder.resolveCallSites();
+            }
+        }
+        return classHierarchy;
+    }
+
+    private static void scan(final ArchiveScanner scanner,
+                             final List<String> paths,
+                             final long timeoutMillis) throws IOException {
+        final ScanResult result = scanner.scanAll(paths, timeoutMillis);
+        if (result.isTimedOut()) {
+            System.err.println("Scan timed out, the results are incomplete");
+        }
+        for (final Map.Entry<String, Throwable> failure : result.getFailures().entrySet()) {
+            System.err.println("Failed to scan " + failure.getKey() + ": " + failure.getValue());
+        }
+    }
+
+    static void usage() {
+        System.out.println("Usage: java ClassHierarchyMain <options> <archive or directory>...");
+        System.out.println();
+        System.out.println("where options include:");
+        System.out.println("-a <threads> number of archives scanned at the same time");
+        System.out.println("-cache <file> reuse and update the analysis results cached in file");
+        System.out.println("-columnar    keep the hierarchy in columns off the heap while scanning (not with -f)");
+        System.out.println("-cp <path>   class path to scan (before the other archives)");
+        System.out.println("-include <glob> scan only entries matching glob (e.g. com/acme/**)");
+        System.out.println("-lazy        scan only the archives, read the classes they use from the class path on demand");
+        System.out.println("-exclude <glob> do not scan entries matching glob");
+        System.out.println("-load <file> read the hierarchy from a snapshot instead of scanning");
+        System.out.println("-save <file> write a snapshot of the hierarchy to file");
+        System.out.println("-f           scan each archive once, and resolve call sites in memory");
+        System.out.println("-rta         resolve call sites with Rapid Type Analysis from the main methods (or all methods)");
+        System.out.println("-platform <file> resolve JDK classes from a snapshot written by PlatformIndexer");
+        System.out.println("-p <threads> number of threads used to scan each archive");
+        System.out.println("-shadowed    list the classes that appear in more than one archive");
+        System.out.println("-stats       print counters and timings (also available over JMX while running)");
+        System.out.println("-t <seconds> stop scanning after this time (with incomplete results)");
+        System.out.println("-h           help");
     }
 
-}
\ No newline at end of file
+}
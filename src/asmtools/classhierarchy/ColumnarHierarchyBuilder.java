@@ -0,0 +1,131 @@
+package asmtools.classhierarchy;
+
+import asmtools.framework.*;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+/**
+ * Build a class hierarchy (including methods) in a ColumnarHierarchy, for
+ * corpora too large for a ClassHierarchyBuilder. Each class is collected by
+ * its visitor and added to the store in one go at its end.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ColumnarHierarchyBuilder implements ClassVisitorAnalyzer {
+
+    private final ColumnarHierarchy store;
+
+    public ColumnarHierarchyBuilder() {
+        this(new ColumnarHierarchy());
+    }
+
+    public ColumnarHierarchyBuilder(final ColumnarHierarchy store) {
+        this.store = store;
+    }
+
+    public ColumnarHierarchy getColumnarHierarchy() {
+        return store;
+    }
+
+    public boolean isThreadSafe() {
+        // each visitor collects its own class, and adding it to the store is atomic
+        return true;
+    }
+
+    public int getParsingOptions() {
+        // headers and method signatures only
+        return ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+    }
+
+    public ClassVisitor getClassVisitor(final String location) {
+        return new ColumnarClassVisitor(location);
+    }
+
+
+    /**
+     * Collects one class, and adds it to the store.
+     */
+    private final class ColumnarClassVisitor extends EmptyVisitor {
+
+        private final SymbolTable symbolTable;
+        private final int locationId;
+        private int nameId;
+        private int modifiers;
+        private int superClassNameId;
+        private int[] interfaceNameIds;
+        private int methodCount;
+        private int[] methodNameIds;
+        private int[] methodDescriptorIds;
+        private int[] methodModifiers;
+
+        ColumnarClassVisitor(final String location) {
+            symbolTable = store.getSymbolTable();
+            locationId = location == null ? -1 : symbolTable.intern(location);
+            methodNameIds = new int[16];
+            methodDescriptorIds = new int[16];
+            methodModifiers = new int[16];
+        }
+
+        public void visit(final int version,
+                          final int access,
+                          final String name,
+                          final String signature,
+                          final String superName,
+                          final String[] interfaces) {
+            nameId = symbolTable.intern(name);
+            modifiers = access;
+            // java/lang/Object has no superclass
+            superClassNameId = superName == null ? -1 : symbolTable.intern(superName);
+            interfaceNameIds = new int[interfaces == null ? 0 : interfaces.length];
+            for (int i = 0; i < interfaceNameIds.length; i++) {
+                interfaceNameIds[i] = symbolTable.intern(interfaces[i]);
+            }
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            return null;
+        }
+
+        public FieldVisitor visitField(final int access,
+                                       final String name,
+                                       final String desc,
+                                       final String signature,
+                                       final Object value) {
+            return null;
+        }
+
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String desc,
+                                         final String signature,
+                                         final String[] exceptions) {
+            if (methodCount == methodNameIds.length) {
+                methodNameIds = grow(methodNameIds);
+                methodDescriptorIds = grow(methodDescriptorIds);
+                methodModifiers = grow(methodModifiers);
+            }
+            methodNameIds[methodCount] = symbolTable.intern(name);
+            methodDescriptorIds[methodCount] = symbolTable.intern(desc);
+            methodModifiers[methodCount] = access;
+            methodCount++;
+            return null;
+        }
+
+        public void visitEnd() {
+            store.addClass(nameId, modifiers, superClassNameId, interfaceNameIds, locationId,
+                    methodCount, methodNameIds, methodDescriptorIds, methodModifiers);
+        }
+
+        private int[] grow(final int[] array) {
+            final int[] newArray = new int[2 * array.length];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            return newArray;
+        }
+
+    }
+
+}
@@ -1,11 +1,12 @@
 package asmtools.classhierarchy;
 
 import asmtools.framework.*;
+import org.objectweb.asm.Opcodes;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Collection;
 
 /**
  * Dump out information about the given ClassHierarchy.
@@ -16,151 +17,154 @@ public final class Dumper {
 
     public void dumpDot(final ClassHierarchy hierarchy, final String fileName)
             throws IOException, TypeInconsistencyException {
+        dumpDot(hierarchy.freeze(), fileName);
+    }
+
+    public void dumpDot(final FrozenHierarchy hierarchy, final String fileName)
+            throws IOException {
+        final long start = System.nanoTime();
         final PrintWriter pw = new PrintWriter(new FileWriter(fileName));
         pw.println("digraph types {");
         pw.println("  rankdir=\"BT\"");
+        final int classCount = hierarchy.getClassCount();
 
         // add classes
-        for (final Type type : hierarchy.getTypes()) {
-            if (type instanceof ClassType) {
-                final ClassType classType = (ClassType) type;
-                pw.print("  \"" + classType.getInternalName());
-                if (classType.isInterface()) {
-                    pw.print("\" [shape=record, style=dotted, label=\"{"
-                            + ouputClassName(classType.getInternalName()) + "|");
-                } else if (classType.isAbstract()) {
-                    pw.print("\" [shape=record, style=dashed, label=\"{"
-                            + ouputClassName(classType.getInternalName()) + "|");
-                } else if (classType.isFinal()) {
-                    pw.print("\" [shape=record, style=bold, label=\"{"
-                            + ouputClassName(classType.getInternalName()) + "|");
-                } else if (classType.isResolved()) {
-                    pw.print("\" [shape=record, style=solid, label=\"{"
-                            + ouputClassName(classType.getInternalName()) + "|");
-                }
-                if (!classType.isResolved()) {
-                    pw.println("\" [shape=ellipse, style=dotted, label=\""
-                            + ouputClassName(classType.getInternalName())
-                            + "\"]");
-                } else {
-                    final Collection<Method> methods = classType.getMethods();
-                    for (Method method : methods) {
-                        if (method.isPrivate()) {
-                            pw.print("private ");
-                        } else if (method.isPublic()) {
-                            pw.print("public ");
-                        } else if (method.isProtected()) {
-                            pw.print("protected ");
-                        }
-                        if (method.isFinal()) {
-                            pw.print("final ");
-                        }
-                        if (method.isStatic()) {
-                            pw.print("static ");
-                        }
-                        if (method.isAbstract()) {
-                            pw.print("abstract ");
-                        }
-                        pw.print(method.getName().replaceAll("<", "[")
-                                .replaceAll(">", "]")
-                                + method.getDescriptor() + "\\n");
+        for (int c = 0; c < classCount; c++) {
+            final String className = hierarchy.getClassName(c);
+            pw.print("  \"" + className);
+            if (hierarchy.isInterface(c)) {
+                pw.print("\" [shape=record, style=dotted, label=\"{"
+                        + ouputClassName(className) + "|");
+            } else if (hierarchy.isAbstract(c)) {
+                pw.print("\" [shape=record, style=dashed, label=\"{"
+                        + ouputClassName(className) + "|");
+            } else if (hierarchy.isFinal(c)) {
+                pw.print("\" [shape=record, style=bold, label=\"{"
+                        + ouputClassName(className) + "|");
+            } else if (hierarchy.isResolved(c)) {
+                pw.print("\" [shape=record, style=solid, label=\"{"
+                        + ouputClassName(className) + "|");
+            }
+            if (!hierarchy.isResolved(c)) {
+                pw.println("\" [shape=ellipse, style=dotted, label=\""
+                        + ouputClassName(className)
+                        + "\"]");
+            } else {
+                for (int i = 0; i < hierarchy.getMethodCount(c); i++) {
+                    final int method = hierarchy.getMethod(c, i);
+                    final int modifiers = hierarchy.getMethodModifiers(method);
+                    if ((modifiers & Opcodes.ACC_PRIVATE) != 0) {
+                        pw.print("private ");
+                    } else if ((modifiers & Opcodes.ACC_PUBLIC) != 0) {
+                        pw.print("public ");
+                    } else if ((modifiers & Opcodes.ACC_PROTECTED) != 0) {
+                        pw.print("protected ");
+                    }
+                    if ((modifiers & Opcodes.ACC_FINAL) != 0) {
+                        pw.print("final ");
+                    }
+                    if ((modifiers & Opcodes.ACC_STATIC) != 0) {
+                        pw.print("static ");
                     }
-                    pw.println("}\"]");
+                    if ((modifiers & Opcodes.ACC_ABSTRACT) != 0) {
+                        pw.print("abstract ");
+                    }
+                    pw.print(hierarchy.getMethodName(method).replaceAll("<", "[")
+                            .replaceAll(">", "]")
+                            + hierarchy.getMethodDescriptor(method) + "\\n");
                 }
-
+                pw.println("}\"]");
             }
         }
 
         // add CH arrows
-        for (final Type type : hierarchy.getTypes()) {
-            if (type instanceof ClassType) {
-                final ClassType classType = (ClassType) type;
-                for (ClassType iface : classType.getInterfaces()) {
-                    pw.println("  \"" + classType.getInternalName()
-                            + "\" -> \"" + iface.getInternalName()
-                            + "\" [style=dashed, arrowhead=empty]");
-                }
+        for (int c = 0; c < classCount; c++) {
+            final String className = hierarchy.getClassName(c);
+            for (int i = 0; i < hierarchy.getInterfaceCount(c); i++) {
+                pw.println("  \"" + className
+                        + "\" -> \"" + hierarchy.getClassName(hierarchy.getInterface(c, i))
+                        + "\" [style=dashed, arrowhead=empty]");
+            }
 
-                ClassType superClassType = classType.getSuperClass();
-                if (!(superClassType == null)) {
-                    pw.println("  \"" + classType.getInternalName()
-                            + "\" -> \"" + superClassType.getInternalName()
-                            + "\" [style=solid, arrowhead=empty]");
-                }
+            final int superClass = hierarchy.getSuperClass(c);
+            if (superClass != -1) {
+                pw.println("  \"" + className
+                        + "\" -> \"" + hierarchy.getClassName(superClass)
+                        + "\" [style=solid, arrowhead=empty]");
             }
         }
 
         // add method calls
-        for (final Type type : hierarchy.getTypes()) {
-            if (type instanceof ClassType) {
-                final ClassType classType = (ClassType) type;
-                if (classType.isResolved()) {
-                    for (Method method : classType.getMethods()) {
-                        pw.print("  \""
-                                + method.getDeclaringClassName()
-                                + "."
-                                + method.getName()
-                                + method.getDescriptor()
-                                + "\" [shape=rectangle, label=\""
-                                + method.getDeclaringClassName()
-                                + "\\n"
-                                + method.getName()
-                                + method.getDescriptor()
-                                + "\", fillcolor=darkolivegreen1 style=\"filled,");
-                        if (method.isAbstract()) {
-                            pw.print(",dashed");
-                        }
-                        pw.println("\"]");
-
-                        pw.println("  \""
-                                + method.getDeclaringClassName()
-                                + "\" -> \""
-                                + method.getDeclaringClassName()
-                                + "."
-                                + method.getName()
-                                + method.getDescriptor()
-                                + "\" [arrowhead=none, style=bold, color=darkolivegreen1]");
+        for (int c = 0; c < classCount; c++) {
+            if (hierarchy.isResolved(c)) {
+                final String className = hierarchy.getClassName(c);
+                for (int i = 0; i < hierarchy.getMethodCount(c); i++) {
+                    final int method = hierarchy.getMethod(c, i);
+                    final String methodName = hierarchy.getMethodName(method)
+                            + hierarchy.getMethodDescriptor(method);
+                    pw.print("  \""
+                            + className
+                            + "."
+                            + methodName
+                            + "\" [shape=rectangle, label=\""
+                            + className
+                            + "\\n"
+                            + methodName
+                            + "\", fillcolor=darkolivegreen1 style=\"filled,");
+                    if ((hierarchy.getMethodModifiers(method) & Opcodes.ACC_ABSTRACT) != 0) {
+                        pw.print(",dashed");
                     }
+                    pw.println("\"]");
+
+                    pw.println("  \""
+                            + className
+                            + "\" -> \""
+                            + className
+                            + "."
+                            + methodName
+                            + "\" [arrowhead=none, style=bold, color=darkolivegreen1]");
                 }
             }
         }
 
-        for (final Type type : hierarchy.getTypes()) {
-            if (type instanceof ClassType) {
-                final ClassType classType = (ClassType) type;
-                if (classType.isResolved()) {
-                    for (Method method : classType.getMethods()) {
-                        for (CallSite callSite : method.getCallSites()) {
-                            if (hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassName()).isResolved()) {
-                                pw.print("  \""
-                                        + method.getDeclaringClassName() + "."
-                                        + method.getName()
-                                        + method.getDescriptor() + "\" -> \""
-                                        + callSite.getDeclaredTargetClassName()
-                                        + "." + callSite.getTargetMethodName()
-                                        + callSite.getTargetMethodDescriptor()
-                                        + "\" [color=blue");
-                                if (hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassName()).isInterface()) {
-                                    pw.print(", style=dotted");
-                                }
-                                pw.println("]");
+        for (int c = 0; c < classCount; c++) {
+            if (hierarchy.isResolved(c)) {
+                final String className = hierarchy.getClassName(c);
+                for (int i = 0; i < hierarchy.getMethodCount(c); i++) {
+                    final int method = hierarchy.getMethod(c, i);
+                    final String caller = className + "."
+                            + hierarchy.getMethodName(method)
+                            + hierarchy.getMethodDescriptor(method);
+                    for (int j = 0; j < hierarchy.getCallSiteCount(method); j++) {
+                        final int callSite = hierarchy.getCallSite(method, j);
+                        final String target = hierarchy.getTargetMethodName(callSite)
+                                + hierarchy.getTargetMethodDescriptor(callSite);
+                        final int declaredTargetClass = hierarchy.getDeclaredTargetClass(callSite);
+                        final boolean toInterface = declaredTargetClass != -1
+                                && hierarchy.isInterface(declaredTargetClass);
+                        if (declaredTargetClass != -1 && hierarchy.isResolved(declaredTargetClass)) {
+                            pw.print("  \""
+                                    + caller + "\" -> \""
+                                    + hierarchy.getClassName(declaredTargetClass)
+                                    + "." + target
+                                    + "\" [color=blue");
+                            if (toInterface) {
+                                pw.print(", style=dotted");
                             }
+                            pw.println("]");
+                        }
 
-                            for (ClassType targetType : callSite.getPossibleTargetClasses()) {
-                                pw.print("  \""
-                                        + method.getDeclaringClassName() + "."
-                                        + method.getName()
-                                        + method.getDescriptor() + "\" -> \""
-                                        + targetType.getInternalName() + "."
-                                        + callSite.getTargetMethodName()
-                                        + callSite.getTargetMethodDescriptor()
-                                        + "\" [color=red");
+                        for (int k = 0; k < hierarchy.getPossibleTargetClassCount(callSite); k++) {
+                            pw.print("  \""
+                                    + caller + "\" -> \""
+                                    + hierarchy.getClassName(hierarchy.getPossibleTargetClass(callSite, k))
+                                    + "." + target
+                                    + "\" [color=red");
 
-                                if (hierarchy.getOrCreateClass(callSite.getDeclaredTargetClassName()).isInterface()) {
-                                    pw.print(", style=dotted");
-                                }
-                                pw.println("]");
+                            if (toInterface) {
+                                pw.print(", style=dotted");
                             }
+                            pw.println("]");
                         }
                     }
                 }
@@ -168,6 +172,8 @@ public final class Dumper {
         }
         pw.println("}");
         pw.close();
+        ScanStatistics.getInstance().dotWritten(new File(fileName).length());
+        ScanStatistics.getInstance().addTime("dump", start);
     }
 
     final String ouputClassName(final String internalName) {
@@ -0,0 +1,60 @@
+package asmtools.classhierarchy;
+
+import asmtools.framework.ClassEntry;
+import asmtools.framework.ClassHeaderReader;
+import asmtools.framework.ClassHierarchy;
+import asmtools.framework.ClassSource;
+import asmtools.framework.ClassSources;
+import asmtools.framework.EntryReader;
+import asmtools.framework.HierarchySnapshot;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Builds the class hierarchy (with methods, but without call sites) of the
+ * running JDK once, and writes it as a HierarchySnapshot. Pass the snapshot
+ * to ClassHierarchyMain with -platform, so JDK classes are resolved from it
+ * on demand instead of being scanned on every run.
+ * <p/>
+ * The classes are read with a ClassHeaderReader, because ASM's ClassReader
+ * cannot read the class files of current JDKs.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class PlatformIndexer {
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 1 || args[0].equals("-h")) {
+            System.out.println("Usage: java PlatformIndexer <snapshot file>");
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        final ClassHierarchy classHierarchy = buildPlatformHierarchy();
+        HierarchySnapshot.write(classHierarchy, args[0]);
+        System.out.println("Indexed " + classHierarchy.getTypes().size() + " types in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Build the hierarchy of all classes of the running JDK.
+     */
+    public static ClassHierarchy buildPlatformHierarchy() throws IOException {
+        final ClassHierarchyBuilder classHierarchyBuilder = new ClassHierarchyBuilder();
+        final List<ClassSource> sources = ClassSources.openPlatform();
+        final EntryReader reader = new EntryReader();
+        try {
+            for (final ClassSource source : sources) {
+                for (final ClassEntry entry : source.getClassEntries()) {
+                    final byte[] bytes = entry.read(reader);
+                    new ClassHeaderReader(bytes, 0, entry.getSize())
+                            .accept(classHierarchyBuilder.getClassVisitor(source.getLocation()));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return classHierarchyBuilder.getClassHierarchy();
+    }
+
+}
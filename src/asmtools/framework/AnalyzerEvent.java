@@ -0,0 +1,54 @@
+package asmtools.framework;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for one analyzer looking at one class in an
+ * ArchiveScanner.
+ * <p/>
+ * Like ScanPhaseEvent, the event is disabled unless a recording enables it.
+ * As long as it is disabled (and the ScanStatistics do not ask for the
+ * time spent in each analyzer), ArchiveScanners do not time the analyzers
+ * at all.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+@Name("asmtools.Analyzer")
+@Label("Analyzer")
+@Category({"asmtools", "Scan"})
+@Description("One analyzer looking at one class")
+@StackTrace(false)
+final class AnalyzerEvent extends Event {
+
+    private static final EventType TYPE = EventType.getEventType(AnalyzerEvent.class);
+
+    @Label("Analyzer")
+    private final String analyzer;
+
+    @Label("Location")
+    @Description("The archive or directory the class is in")
+    private final String location;
+
+    @Label("Entry")
+    private final String entry;
+
+    AnalyzerEvent(final String analyzer, final String location, final ClassEntry entry) {
+        this.analyzer = analyzer;
+        this.location = location;
+        this.entry = entry.getName();
+    }
+
+    /**
+     * Is a recording interested in this event?
+     */
+    static boolean isRecorded() {
+        return TYPE.isEnabled();
+    }
+
+}
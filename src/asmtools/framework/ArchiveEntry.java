@@ -0,0 +1,101 @@
+package asmtools.framework;
+
+import java.io.IOException;
+
+/**
+ * An entry in the central directory of a MappedArchive.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ArchiveEntry implements ClassEntry {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private final MappedArchive archive;
+    private final String name;
+    private final int method;
+    private final long crc;
+    private final int compressedSize;
+    private final int size;
+    private final long localHeaderOffset;
+
+    ArchiveEntry(final MappedArchive archive,
+                 final String name,
+                 final int method,
+                 final long crc,
+                 final int compressedSize,
+                 final int size,
+                 final long localHeaderOffset) {
+        this.archive = archive;
+        this.name = name;
+        this.method = method;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+    }
+
+    /**
+     * Get the archive containing this entry.
+     */
+    public MappedArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Get the name of the entry, e.g. "java/lang/Object.class".
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the CRC-32 of the uncompressed data, as recorded in the central directory.
+     */
+    public long getCrc() {
+        return crc;
+    }
+
+    /**
+     * Get the size of the uncompressed data in bytes.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get the size of the (possibly compressed) data stored in the archive in bytes.
+     */
+    public int getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * Is the data stored uncompressed?
+     */
+    public boolean isStored() {
+        return method == STORED;
+    }
+
+    public byte[] read(final EntryReader reader) throws IOException {
+        return reader.read(archive, this);
+    }
+
+    public boolean isDirectory() {
+        return name.endsWith("/");
+    }
+
+    int getMethod() {
+        return method;
+    }
+
+    long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    public String toString() {
+        return name;
+    }
+
+}
@@ -1,26 +1,100 @@
 package asmtools.framework;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.tree.ClassNode;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 /**
  * Scans a JAR archive containing Java class files, uses ASM to load each class,
  * and for each class invokes Analyzer.analyze() on each registered Analyzer.
+ * ClassVisitorAnalyzers are instead fed the events of the ClassReader, all
+ * of them through the same accept() call, without building a ClassNode.
+ * Besides single archives, it can scan any ClassSource: directories of class
+ * files, archives nested in archives, and whole class paths. Archives are
+ * memory-mapped (see MappedArchive), and each class is read into a reusable
+ * buffer of an EntryReader before it is handed to ASM.
+ * <p/>
+ * If any stage is given a parallelism greater than one, a scan becomes a
+ * pipeline of three stages connected by bounded queues: reader threads copy
+ * the (still compressed) entries out of the archive, parser threads inflate
+ * and parse them (largest entries first) and feed the thread-safe
+ * ClassVisitorAnalyzers, and analyzer threads run the ClassAnalyzers. The
+ * ClassVisitorAnalyzers that are not thread-safe run in the analyzer stage
+ * too, with their events replayed from a ClassNode. Analyzers that are not
+ * thread-safe are called one at a time, so they see the same classes as in
+ * a sequential scan (only the order of the classes differs).
+ * <p/>
+ * scanAll() scans several archives at the same time, with a deadline and
+ * cooperative cancellation (see cancel()).
+ * <p/>
+ * Scans count their entries and classes, and the time spent in the read,
+ * parse and analyze phases, in the shared ScanStatistics, and record each
+ * phase as a Java Flight Recorder event (ScanPhaseEvent). The time spent in
+ * each analyzer is only measured if the ScanStatistics ask for it or a
+ * recording has AnalyzerEvent enabled: then the analyzers that would share
+ * the events of the ClassReader get them replayed from a ClassNode one
+ * after the other instead, so each of them is timed once per class.
+ * <p/>
+ * An EntryFilter and a ClasspathIndex select the entries to scan before any
+ * of them is read.
  *
  * @author Matthias.Hauswirth@usi.ch
  */
 public final class ArchiveScanner {
 
+    // tells a worker of the next stage that there are no more items
+    private static final ScanItem END = new ScanItem(null);
+
+    // the phases in ScanStatistics
+    private static final String READ_PHASE = "read";
+    private static final String PARSE_PHASE = "parse";
+    private static final String ANALYZE_PHASE = "analyze";
+
     private final ArrayList<ClassAnalyzer> analyzers;
+    private final ArrayList<ClassVisitorAnalyzer> visitorAnalyzers;
+    private final Object analyzerLock;
+    private final ScanStatistics statistics;
+    private int readerParallelism;
+    private int parallelism;
+    private int analyzerParallelism;
+    private int queueCapacity;
+    private int archiveParallelism;
+    private volatile boolean cancelled;
+    private ScanCache cache;
+    private EntryFilter entryFilter;
+    private ClasspathIndex classpathIndex;
 
     public ArchiveScanner() {
         analyzers = new ArrayList<ClassAnalyzer>();
+        visitorAnalyzers = new ArrayList<ClassVisitorAnalyzer>();
+        analyzerLock = new Object();
+        statistics = ScanStatistics.getInstance();
+        readerParallelism = 1;
+        parallelism = 1;
+        analyzerParallelism = 1;
+        queueCapacity = 256;
+        archiveParallelism = 1;
     }
 
     public void addAnalyzer(final ClassAnalyzer analyzer) {
@@ -31,27 +105,718 @@ public final class ArchiveScanner {
         analyzers.remove(analyzer);
     }
 
-    public void scan(final String archiveName) throws IOException {
-        final ZipFile zipFile = new ZipFile(archiveName);
-        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-        while (entries.hasMoreElements()) {
-            final ZipEntry zipEntry = entries.nextElement();
-            if (zipEntry.getName().toLowerCase().endsWith(".class"))
-                analyzeClass(zipFile, zipEntry);
+    public void addAnalyzer(final ClassVisitorAnalyzer analyzer) {
+        visitorAnalyzers.add(analyzer);
+    }
+
+    public void removeAnalyzer(final ClassVisitorAnalyzer analyzer) {
+        visitorAnalyzers.remove(analyzer);
+    }
+
+    /**
+     * Set the number of threads reading entries in the first stage of a
+     * pipelined scan. The default is 1.
+     */
+    public void setReaderParallelism(final int readerParallelism) {
+        this.readerParallelism = checkParallelism(readerParallelism);
+    }
+
+    public int getReaderParallelism() {
+        return readerParallelism;
+    }
+
+    /**
+     * Set the number of threads inflating and parsing entries in the second
+     * stage of a pipelined scan. The default is 1.
+     */
+    public void setParallelism(final int parallelism) {
+        this.parallelism = checkParallelism(parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of threads running the ClassAnalyzers in the third
+     * stage of a pipelined scan. The default is 1. Analyzers that are not
+     * thread-safe are still called one at a time.
+     */
+    public void setAnalyzerParallelism(final int analyzerParallelism) {
+        this.analyzerParallelism = checkParallelism(analyzerParallelism);
+    }
+
+    public int getAnalyzerParallelism() {
+        return analyzerParallelism;
+    }
+
+    /**
+     * Set the number of classes that may wait between two stages of a
+     * pipelined scan. The default is 256. Together with the
+     * parallelism of the stages this bounds the number of classes in memory
+     * at any time, independent of the size of the archive.
+     */
+    public void setQueueCapacity(final int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1, got " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Set the number of archives scanAll() scans at the same time. The
+     * default is 1.
+     */
+    public void setArchiveParallelism(final int archiveParallelism) {
+        this.archiveParallelism = checkParallelism(archiveParallelism);
+    }
+
+    public int getArchiveParallelism() {
+        return archiveParallelism;
+    }
+
+    private static int checkParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        return parallelism;
+    }
+
+    /**
+     * Use the given cache to skip reading and parsing class files that did
+     * not change since they were cached (null to disable caching). See
+     * ScanCache for the analyzers this works for. While any ClassAnalyzer is
+     * registered, class files are always parsed (a ClassAnalyzer gets the
+     * whole class, which a cached summary does not have); the cache is only
+     * updated.
+     */
+    public void setCache(final ScanCache cache) {
+        this.cache = cache;
+    }
+
+    public ScanCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Scan only the class entries accepted by the given filter (null to scan
+     * all). Rejected entries are skipped before they are read.
+     */
+    public void setEntryFilter(final EntryFilter entryFilter) {
+        this.entryFilter = entryFilter;
+    }
+
+    public EntryFilter getEntryFilter() {
+        return entryFilter;
+    }
+
+    /**
+     * Scan each class only from the class path element it is loaded from
+     * according to the given index (null to scan all classes of each
+     * source). The paths of the index are scanned through the sources the
+     * index opened.
+     */
+    public void setClasspathIndex(final ClasspathIndex classpathIndex) {
+        this.classpathIndex = classpathIndex;
+    }
+
+    public ClasspathIndex getClasspathIndex() {
+        return classpathIndex;
+    }
+
+    private List<ClassEntry> getClassEntries(final ClassSource source) {
+        final List<ClassEntry> classEntries = source.getClassEntries();
+        if (entryFilter == null && classpathIndex == null) {
+            return classEntries;
+        }
+        final ArrayList<ClassEntry> selected = new ArrayList<ClassEntry>(classEntries.size());
+        for (final ClassEntry entry : classEntries) {
+            if ((entryFilter == null || entryFilter.accept(entry.getName()))
+                    && (classpathIndex == null || classpathIndex.isVisible(source, entry))) {
+                selected.add(entry);
+            }
+        }
+        return selected;
+    }
+
+    private List<ClassSource> open(final String path) throws IOException {
+        final List<ClassSource> sources = classpathIndex == null ? null : classpathIndex.getSources(path);
+        return sources == null ? ClassSources.open(path) : sources;
+    }
+
+    /**
+     * Scan the archive or directory with the given path, including archives
+     * nested in the archive (see ClassSources.open()).
+     */
+    public void scan(final String path) throws IOException {
+        cancelled = false;
+        for (final ClassSource source : open(path)) {
+            scan(source, false);
+        }
+    }
+
+    /**
+     * Scan all elements of the given class path, in class path order.
+     */
+    public void scanClasspath(final String classpath) throws IOException {
+        cancelled = false;
+        for (final ClassSource source : ClassSources.openClasspath(classpath)) {
+            scan(source, false);
+        }
+    }
+
+    /**
+     * Scan all elements of the given class path like scanAll().
+     */
+    public ScanResult scanAllClasspath(final String classpath, final long timeoutMillis) throws IOException {
+        return scanAll(ClassSources.splitClasspath(classpath), timeoutMillis);
+    }
+
+    public void scan(final ClassSource source) throws IOException {
+        cancelled = false;
+        scan(source, false);
+    }
+
+    /**
+     * Scan the given archives and directories (and the archives nested in
+     * them), up to getArchiveParallelism() at the same time. An archive that
+     * cannot be scanned does not stop the others: the result lists it with
+     * the reason.
+     * <p/>
+     * If timeoutMillis is positive and the scan takes longer, or if cancel()
+     * is called, the archives still being scanned stop at their next class
+     * (and are listed as failed). In any case, all work has stopped when
+     * scanAll() returns.
+     * <p/>
+     * Classes of archives scanned at the same time reach the analyzers in no
+     * particular order, so when several archives contain the same class, it
+     * is not defined which of them an analyzer sees first, unless a
+     * ClasspathIndex (built from the same paths) selects one of them.
+     */
+    public ScanResult scanAll(final List<String> paths, final long timeoutMillis) throws IOException {
+        cancelled = false;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final boolean concurrent = archiveParallelism > 1;
+        final ScanResult result = new ScanResult();
+        final ExecutorService executor = Executors.newFixedThreadPool(archiveParallelism);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>(paths.size());
+            for (final String path : paths) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        checkCancelled();
+                        for (final ClassSource source : open(path)) {
+                            scan(source, concurrent);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                final Future<Void> future = futures.get(i);
+                try {
+                    if (timeoutMillis > 0 && !cancelled) {
+                        try {
+                            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                        } catch (final TimeoutException ex) {
+                            // stop all remaining archives at their next class, and wait for that
+                            result.setTimedOut();
+                            cancel();
+                            future.get();
+                        }
+                    } else {
+                        future.get();
+                    }
+                    result.addScanned(paths.get(i));
+                } catch (final InterruptedException ex) {
+                    cancel();
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while scanning " + paths.get(i));
+                } catch (final ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof Error) {
+                        cancel();
+                        throw (Error) cause;
+                    }
+                    result.addFailure(paths.get(i), cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
         }
+        return result;
     }
 
-    private void analyzeClass(final ZipFile zipFile, final ZipEntry zipEntry) throws IOException {
-        final String location = zipFile.getName();
-        final ClassReader classReader = new ClassReader(zipFile.getInputStream(zipEntry));
-        // create an empty ClassNode (in-memory representation of a class)
-        final ClassNode classNode = new ClassNode();
-        // have the ClassReader read the class file and populate the ClassNode
-        // with the corresponding information
-        classReader.accept(classNode, 0);
+    /**
+     * Make all scans that are currently running stop at their next class
+     * (with a CancellationException, or a failure in the result of
+     * scanAll()). Scans started afterwards are not affected: each scan
+     * (scan(), scanClasspath(), scanAll()) starts afresh.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Scan cancelled");
+        }
+    }
+
+    /**
+     * Scan source, either sequentially or as a pipeline. If concurrent is set,
+     * other sources are being scanned at the same time, so the analyzers that
+     * are not thread-safe have to be called one at a time even when scanning
+     * sequentially.
+     */
+    private void scan(final ClassSource source, final boolean concurrent) throws IOException {
+        final int parsingOptions = getParsingOptions();
+        if (readerParallelism > 1 || parallelism > 1 || analyzerParallelism > 1) {
+            scanPipelined(source, parsingOptions);
+        } else {
+            final String location = source.getLocation();
+            final EntryReader reader = new EntryReader();
+            try {
+                for (final ClassEntry entry : getClassEntries(source)) {
+                    checkCancelled();
+                    final ScanItem item = new ScanItem(entry);
+                    ScanPhaseEvent event = new ScanPhaseEvent(READ_PHASE, location, entry);
+                    event.begin();
+                    long start = System.nanoTime();
+                    read(location, item, reader, parsingOptions, false);
+                    statistics.addTime(READ_PHASE, start);
+                    event.commit();
+                    event = new ScanPhaseEvent(PARSE_PHASE, location, entry);
+                    event.begin();
+                    start = System.nanoTime();
+                    parse(location, item, reader, parsingOptions, concurrent);
+                    statistics.addTime(PARSE_PHASE, start);
+                    event.commit();
+                    event = new ScanPhaseEvent(ANALYZE_PHASE, location, entry);
+                    event.begin();
+                    start = System.nanoTime();
+                    analyze(location, item, concurrent);
+                    statistics.addTime(ANALYZE_PHASE, start);
+                    event.commit();
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Get the ClassReader flags to use: skip the parts of a class that no
+     * analyzer needs.
+     */
+    int getParsingOptions() {
+        final int skipFlags = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+        int skip = skipFlags;
+        int expand = 0;
         for (final ClassAnalyzer analyzer : analyzers) {
-            analyzer.analyze(location, classNode);
+            final int options = analyzer.getParsingOptions();
+            skip &= options;
+            expand |= options & ClassReader.EXPAND_FRAMES;
+        }
+        for (final ClassVisitorAnalyzer analyzer : visitorAnalyzers) {
+            final int options = analyzer.getParsingOptions();
+            skip &= options;
+            expand |= options & ClassReader.EXPAND_FRAMES;
+        }
+        if (expand != 0) {
+            skip &= ~(ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+        }
+        return skip | expand;
+    }
+
+    /**
+     * Scan the entries of source with a pipeline of three stages: readers
+     * (reading or copying the still compressed data), parsers (inflating,
+     * parsing and feeding the thread-safe ClassVisitorAnalyzers) and
+     * analyzers (running the ClassAnalyzers and the ClassVisitorAnalyzers
+     * that are not thread-safe). The stages are connected by bounded queues,
+     * so a stage that falls behind blocks the stages before it.
+     */
+    private void scanPipelined(final ClassSource source, final int parsingOptions) throws IOException {
+        final String location = source.getLocation();
+        final ArrayList<ClassEntry> classEntries = new ArrayList<ClassEntry>(getClassEntries(source));
+        // largest entries first, so no big class is left over at the end
+        // while all other workers are already idle
+        Collections.sort(classEntries, new Comparator<ClassEntry>() {
+            public int compare(final ClassEntry a, final ClassEntry b) {
+                return a.getSize() < b.getSize() ? 1 : (a.getSize() > b.getSize() ? -1 : 0);
+            }
+        });
+
+        final BlockingQueue<ScanItem> parseQueue = new ArrayBlockingQueue<ScanItem>(queueCapacity);
+        final BlockingQueue<ScanItem> analyzeQueue = new ArrayBlockingQueue<ScanItem>(queueCapacity);
+        // readers take the next entry from the shared list, the last reader
+        // (resp. parser) to finish tells each worker of the next stage to stop
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger activeReaders = new AtomicInteger(readerParallelism);
+        final AtomicInteger activeParsers = new AtomicInteger(parallelism);
+        final int workers = readerParallelism + parallelism + analyzerParallelism;
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            final CompletionService<Void> stages = new ExecutorCompletionService<Void>(executor);
+            for (int i = 0; i < readerParallelism; i++) {
+                stages.submit(new Callable<Void>() {
+                    public Void call() throws IOException, InterruptedException {
+                        final EntryReader reader = new EntryReader();
+                        try {
+                            int index;
+                            while ((index = next.getAndIncrement()) < classEntries.size()) {
+                                checkCancelled();
+                                final ScanItem item = new ScanItem(classEntries.get(index));
+                                final ScanPhaseEvent event = new ScanPhaseEvent(READ_PHASE, location, item.entry);
+                                event.begin();
+                                final long start = System.nanoTime();
+                                read(location, item, reader, parsingOptions, true);
+                                statistics.addTime(READ_PHASE, start);
+                                event.commit();
+                                parseQueue.put(item);
+                            }
+                        } finally {
+                            reader.close();
+                        }
+                        if (activeReaders.decrementAndGet() == 0) {
+                            for (int j = 0; j < parallelism; j++) {
+                                parseQueue.put(END);
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (int i = 0; i < parallelism; i++) {
+                stages.submit(new Callable<Void>() {
+                    public Void call() throws IOException, InterruptedException {
+                        final EntryReader reader = new EntryReader();
+                        try {
+                            ScanItem item;
+                            while ((item = parseQueue.take()) != END) {
+                                final ScanPhaseEvent event = new ScanPhaseEvent(PARSE_PHASE, location, item.entry);
+                                event.begin();
+                                final long start = System.nanoTime();
+                                parse(location, item, reader, parsingOptions, true);
+                                statistics.addTime(PARSE_PHASE, start);
+                                event.commit();
+                                analyzeQueue.put(item);
+                            }
+                        } finally {
+                            reader.close();
+                        }
+                        if (activeParsers.decrementAndGet() == 0) {
+                            for (int j = 0; j < analyzerParallelism; j++) {
+                                analyzeQueue.put(END);
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (int i = 0; i < analyzerParallelism; i++) {
+                stages.submit(new Callable<Void>() {
+                    public Void call() throws InterruptedException {
+                        ScanItem item;
+                        while ((item = analyzeQueue.take()) != END) {
+                            final ScanPhaseEvent event = new ScanPhaseEvent(ANALYZE_PHASE, location, item.entry);
+                            event.begin();
+                            final long start = System.nanoTime();
+                            analyze(location, item, true);
+                            statistics.addTime(ANALYZE_PHASE, start);
+                            event.commit();
+                        }
+                        return null;
+                    }
+                });
+            }
+            // the first failing worker ends the scan (shutdownNow() interrupts the others)
+            for (int i = 0; i < workers; i++) {
+                try {
+                    stages.take().get();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while scanning " + location);
+                } catch (final ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * First stage: look the entry up in the cache and, if it is not cached
+     * and copy is set (the entry is handed to another thread), copy its data.
+     */
+    private void read(final String location,
+                      final ScanItem item,
+                      final EntryReader reader,
+                      final int parsingOptions,
+                      final boolean copy) throws IOException {
+        final ClassEntry entry = item.entry;
+        // (the summary would only give a ClassAnalyzer part of the class)
+        if (cache != null && analyzers.isEmpty()) {
+            long crc = entry.getCrc();
+            if (crc == -1) {
+                // e.g. a file in a directory: there is no CRC without reading the file
+                final byte[] bytes = entry.read(reader);
+                statistics.entryRead(entry.getSize());
+                final CRC32 checksum = new CRC32();
+                checksum.update(bytes, 0, entry.getSize());
+                crc = checksum.getValue();
+                item.data = copy ? Arrays.copyOf(bytes, entry.getSize()) : bytes;
+            }
+            item.crc = crc;
+            final boolean withCode = (parsingOptions & ClassReader.SKIP_CODE) == 0;
+            item.summary = cache.get(location, entry.getName(), crc, entry.getSize(), withCode);
+            if (item.summary != null) {
+                item.data = null;
+                return;
+            }
+        }
+        if (copy && item.data == null) {
+            if (entry instanceof ArchiveEntry && !((ArchiveEntry) entry).isStored()) {
+                // leave the inflating to the parsers
+                final ArchiveEntry archiveEntry = (ArchiveEntry) entry;
+                item.compressed = reader.readCompressed(archiveEntry.getArchive(), archiveEntry);
+                statistics.entryRead(entry.getSize());
+            } else {
+                item.data = Arrays.copyOf(entry.read(reader), entry.getSize());
+                statistics.entryRead(entry.getSize());
+            }
+        }
+    }
+
+    /**
+     * Second stage: parse the class (or replay its cached summary) and feed
+     * the ClassVisitorAnalyzers that can run here, and a ClassNode if some
+     * analyzer of the third stage needs one. If concurrent is set (other
+     * threads may be scanning at the same time), the ClassVisitorAnalyzers
+     * that are not thread-safe are left to the third stage.
+     */
+    private void parse(final String location,
+                       final ScanItem item,
+                       final EntryReader reader,
+                       final int parsingOptions,
+                       final boolean concurrent) throws IOException {
+        // the visitors of the analyzers that run here
+        final ArrayList<ClassVisitor> inlineVisitors = new ArrayList<ClassVisitor>(visitorAnalyzers.size());
+        final ArrayList<ClassVisitorAnalyzer> inlineAnalyzers = new ArrayList<ClassVisitorAnalyzer>(visitorAnalyzers.size());
+        boolean deferred = false;
+        for (final ClassVisitorAnalyzer analyzer : visitorAnalyzers) {
+            if (!concurrent || analyzer.isThreadSafe()) {
+                final ClassVisitor visitor = analyzer.getClassVisitor(location);
+                if (visitor != null) {
+                    inlineVisitors.add(visitor);
+                    inlineAnalyzers.add(analyzer);
+                }
+            } else {
+                deferred = true;
+            }
+        }
+        // timed analyzers take no turns, each of them gets the whole class in one go
+        final boolean timed = !inlineVisitors.isEmpty() && isAnalyzerTimed();
+
+        if (item.summary != null) {
+            // deferred analyzers replay the summary themselves
+            // (there are no ClassAnalyzers, see read())
+            if (timed) {
+                for (int i = 0; i < inlineVisitors.size(); i++) {
+                    replay(inlineAnalyzers.get(i), inlineVisitors.get(i), location, item, null);
+                }
+            } else if (!inlineVisitors.isEmpty()) {
+                item.summary.accept(FanOutClassVisitor.of(inlineVisitors));
+            }
+            statistics.classReplayed();
+            return;
+        }
+
+        // visitors that see the events of the ClassReader directly
+        final ArrayList<ClassVisitor> visitors = new ArrayList<ClassVisitor>(visitorAnalyzers.size() + 2);
+        if (!timed) {
+            visitors.addAll(inlineVisitors);
+        }
+        // an in-memory representation of the class, only if somebody needs it
+        final ClassNode classNode = analyzers.isEmpty() && !deferred && !timed ? null : new ClassNode();
+        if (classNode != null) {
+            visitors.add(classNode);
+        }
+        if (visitors.isEmpty()) {
+            return;
         }
+        final boolean withCode = (parsingOptions & ClassReader.SKIP_CODE) == 0;
+        final ClassSummary.Recorder recorder = cache == null ? null : new ClassSummary.Recorder(withCode);
+        if (recorder != null) {
+            visitors.add(recorder);
+        }
+
+        final ClassEntry entry = item.entry;
+        final byte[] bytes;
+        if (item.compressed != null) {
+            final ArchiveEntry archiveEntry = (ArchiveEntry) entry;
+            bytes = reader.inflate(archiveEntry.getArchive(), archiveEntry, item.compressed);
+        } else if (item.data != null) {
+            bytes = item.data;
+        } else {
+            bytes = entry.read(reader);
+            statistics.entryRead(entry.getSize());
+        }
+        // no longer needed while the item waits for the analyzers
+        item.compressed = null;
+        item.data = null;
+        // the ClassReader only uses the bytes during accept(), so the reader's buffer can be reused afterwards
+        final ClassReader classReader = new ClassReader(bytes, 0, entry.getSize());
+        // have the ClassReader read the class file and feed the visitors
+        // (only the parts the analyzers need)
+        classReader.accept(FanOutClassVisitor.of(visitors), parsingOptions);
+        statistics.classParsed();
+        if (timed) {
+            for (int i = 0; i < inlineVisitors.size(); i++) {
+                replay(inlineAnalyzers.get(i), inlineVisitors.get(i), location, item, classNode);
+            }
+        }
+        if (recorder != null) {
+            cache.put(location, entry.getName(), item.crc, entry.getSize(), recorder.getSummary());
+        }
+        item.classNode = classNode;
+    }
+
+    /**
+     * Is the time spent in each analyzer to be measured?
+     */
+    private boolean isAnalyzerTimed() {
+        return statistics.isAnalyzersTimed() || AnalyzerEvent.isRecorded();
+    }
+
+    /**
+     * Replay the class to the given visitor of the given analyzer: its
+     * summary if it has one, classNode otherwise. Timed if isAnalyzerTimed().
+     */
+    private void replay(final ClassVisitorAnalyzer analyzer,
+                        final ClassVisitor visitor,
+                        final String location,
+                        final ScanItem item,
+                        final ClassNode classNode) {
+        if (!isAnalyzerTimed()) {
+            if (item.summary != null) {
+                item.summary.accept(visitor);
+            } else {
+                classNode.accept(visitor);
+            }
+            return;
+        }
+        final String name = analyzer.getClass().getSimpleName();
+        final AnalyzerEvent event = new AnalyzerEvent(name, location, item.entry);
+        event.begin();
+        final long start = System.nanoTime();
+        if (item.summary != null) {
+            item.summary.accept(visitor);
+        } else {
+            classNode.accept(visitor);
+        }
+        statistics.addTime(name, start);
+        event.commit();
+    }
+
+    /**
+     * Third stage: run the ClassAnalyzers, and the ClassVisitorAnalyzers the
+     * second stage left out. If concurrent is set, analyzers that are not
+     * thread-safe are called one at a time.
+     */
+    private void analyze(final String location, final ScanItem item, final boolean concurrent) {
+        final ClassNode classNode = item.classNode;
+        if (!concurrent) {
+            if (classNode != null) {
+                for (final ClassAnalyzer analyzer : analyzers) {
+                    runAnalyzer(analyzer, location, item);
+                }
+            }
+            return;
+        }
+        if (classNode != null) {
+            for (final ClassAnalyzer analyzer : analyzers) {
+                if (analyzer.isThreadSafe()) {
+                    runAnalyzer(analyzer, location, item);
+                }
+            }
+        }
+        if (classNode == null && item.summary == null) {
+            // nobody was interested in this class
+            return;
+        }
+        synchronized (analyzerLock) {
+            for (final ClassVisitorAnalyzer analyzer : visitorAnalyzers) {
+                if (!analyzer.isThreadSafe()) {
+                    final ClassVisitor visitor = analyzer.getClassVisitor(location);
+                    if (visitor != null) {
+                        replay(analyzer, visitor, location, item, classNode);
+                    }
+                }
+            }
+            if (classNode != null) {
+                for (final ClassAnalyzer analyzer : analyzers) {
+                    if (!analyzer.isThreadSafe()) {
+                        runAnalyzer(analyzer, location, item);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private void runAnalyzer(final ClassAnalyzer analyzer, final String location, final ScanItem item) {
+        if (!isAnalyzerTimed()) {
+            analyzer.analyze(location, item.classNode);
+            return;
+        }
+        final String name = analyzer.getClass().getSimpleName();
+        final AnalyzerEvent event = new AnalyzerEvent(name, location, item.entry);
+        event.begin();
+        final long start = System.nanoTime();
+        analyzer.analyze(location, item.classNode);
+        statistics.addTime(name, start);
+        event.commit();
+    }
+
+
+    /**
+     * A class on its way through the stages of a scan.
+     */
+    private static final class ScanItem {
+
+        final ClassEntry entry;
+        long crc = -1;
+        // set by the first stage: a cached summary, or a copy of the
+        // (compressed or uncompressed) data for the second stage
+        ClassSummary summary;
+        byte[] compressed;
+        byte[] data;
+        // set by the second stage
+        ClassNode classNode;
+
+        ScanItem(final ClassEntry entry) {
+            this.entry = entry;
+        }
+
     }
 
-}
\ No newline at end of file
+}
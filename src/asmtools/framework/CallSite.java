@@ -1,38 +1,55 @@
 package asmtools.framework;
 
-import java.util.Collection;
-import java.util.HashSet;
-
 /**
  * A call site represents a call instruction in the body of a method.
+ * <p/>
+ * Its possible target classes are an immutable TargetSet shared with all
+ * call sites that have the same targets.
  *
  * @author Matthias.Hauswirth@usi.ch
  */
 public final class CallSite {
 
+    private final Method caller;
     private final int opcode;
-    private final String declaredTargetClassName;
-    private final String targetMethodName;
-    private final String targetMethodDescriptor;
-    private final HashSet<ClassType> possibleTargetClasses;
+    private final int declaredTargetClassNameId;
+    private final int targetMethodNameId;
+    private final int targetMethodDescriptorId;
+    private TargetSet possibleTargetClasses;
 
     /**
-     * Create a CallSite given the info taken from an ASM MethodInsnNode.
+     * Create a CallSite given the info taken from an ASM MethodInsnNode. The
+     * names are interned in the SymbolTable of the caller's hierarchy.
      *
+     * @param caller                  the method containing the call instruction
      * @param opcode                  from MethodInsnNode.getOpcode()
      * @param declaredTargetClassName from MethodInsnNode.owner
      * @param targetMethodName        from MethodInsnNode.name
      * @param targetMethodDescriptor  from MethodInsnNode.desc
      */
-    public CallSite(final int opcode,
+    public CallSite(final Method caller,
+                    final int opcode,
                     final String declaredTargetClassName,
                     final String targetMethodName,
                     final String targetMethodDescriptor) {
+        this.caller = caller;
         this.opcode = opcode;
-        this.declaredTargetClassName = declaredTargetClassName;
-        this.targetMethodName = targetMethodName;
-        this.targetMethodDescriptor = targetMethodDescriptor;
-        possibleTargetClasses = new HashSet<ClassType>();
+        final SymbolTable symbolTable = getSymbolTable();
+        this.declaredTargetClassNameId = symbolTable.intern(declaredTargetClassName);
+        this.targetMethodNameId = symbolTable.intern(targetMethodName);
+        this.targetMethodDescriptorId = symbolTable.intern(targetMethodDescriptor);
+        possibleTargetClasses = TargetSet.EMPTY;
+    }
+
+    private SymbolTable getSymbolTable() {
+        return caller.getDeclaringClass().getSymbolTable();
+    }
+
+    /**
+     * Get the method containing this call site.
+     */
+    public Method getCaller() {
+        return caller;
     }
 
     public int getOpcode() {
@@ -40,25 +57,62 @@ public final class CallSite {
     }
 
     public String getDeclaredTargetClassName() {
-        return declaredTargetClassName;
+        return getSymbolTable().get(declaredTargetClassNameId);
     }
 
     public String getTargetMethodName() {
-        return targetMethodName;
+        return getSymbolTable().get(targetMethodNameId);
     }
 
     public String getTargetMethodDescriptor() {
-        return targetMethodDescriptor;
+        return getSymbolTable().get(targetMethodDescriptorId);
+    }
+
+    /**
+     * Get the parameter and return types of the target method, parsed from
+     * its descriptor (once per distinct descriptor in the hierarchy).
+     */
+    public MethodSignature getTargetMethodSignature() throws TypeInconsistencyException {
+        return caller.getDeclaringClass().getHierarchy().getMethodSignature(targetMethodDescriptorId);
+    }
+
+    /**
+     * Get the ID of the declared target class name in the hierarchy's
+     * SymbolTable.
+     */
+    public int getDeclaredTargetClassNameId() {
+        return declaredTargetClassNameId;
+    }
+
+    public int getTargetMethodNameId() {
+        return targetMethodNameId;
+    }
+
+    public int getTargetMethodDescriptorId() {
+        return targetMethodDescriptorId;
     }
 
     /**
      * Use this method to add a possible target during Class Hierarchy Analysis.
+     * The targets are copied into a new set that is not shared; share it
+     * with ClassHierarchy.getTargetSet() once all targets are added. Adding
+     * k targets this way takes O(k^2) time: an analysis adding many targets
+     * should collect them itself, and setPossibleTargetClasses() once.
      */
     public void addPossibleTargetClass(final ClassType targetClass) {
-        possibleTargetClasses.add(targetClass);
+        possibleTargetClasses = possibleTargetClasses.with(targetClass);
+    }
+
+    /**
+     * Set all possible targets at once, e.g. to a set shared by all call
+     * sites with the same target method (see
+     * ClassHierarchy.getTargetSet()).
+     */
+    public void setPossibleTargetClasses(final TargetSet possibleTargetClasses) {
+        this.possibleTargetClasses = possibleTargetClasses;
     }
 
-    public Collection<ClassType> getPossibleTargetClasses() {
+    public TargetSet getPossibleTargetClasses() {
         return possibleTargetClasses;
     }
 
@@ -11,4 +11,19 @@ public interface ClassAnalyzer {
 
     public void analyze(String location, ClassNode clazz);
 
-}
\ No newline at end of file
+    /**
+     * Return true if analyze() may be called concurrently from several threads
+     * (e.g. by an ArchiveScanner with a parallelism greater than one). Analyzers
+     * returning false are never called concurrently with any other analyzer
+     * that is not thread-safe.
+     */
+    public boolean isThreadSafe();
+
+    /**
+     * Get the parts of a class this analyzer can do without, as ClassReader
+     * flags (SKIP_CODE, SKIP_DEBUG, SKIP_FRAMES, possibly EXPAND_FRAMES). An
+     * ArchiveScanner skips a part only if all its analyzers can do without it.
+     */
+    public int getParsingOptions();
+
+}
@@ -0,0 +1,36 @@
+package asmtools.framework;
+
+import java.io.IOException;
+
+/**
+ * A class file in a ClassSource.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public interface ClassEntry {
+
+    /**
+     * Get the name of the class file relative to the root of its source,
+     * e.g. "java/lang/Object.class".
+     */
+    public String getName();
+
+    /**
+     * Get the size of the class file in bytes.
+     */
+    public int getSize();
+
+    /**
+     * Get the CRC-32 of the class file, or -1 if it is not known without
+     * reading the file.
+     */
+    public long getCrc();
+
+    /**
+     * Read the class file with the given reader. The data occupies the first
+     * getSize() bytes of the returned array, which is only valid until the
+     * reader is used again.
+     */
+    public byte[] read(EntryReader reader) throws IOException;
+
+}
@@ -0,0 +1,183 @@
+package asmtools.framework;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * A minimal class file parser that reports the class header, the fields and
+ * the methods (but no attributes and no code) to a ClassVisitor.
+ * <p/>
+ * Unlike ASM's ClassReader it understands the constant pool of any class
+ * file version (including the constants added for invokedynamic, modules and
+ * dynamic constants), so it can read the classes of a current JDK.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ClassHeaderReader {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private final byte[] b;
+    private final int off;
+    private final int[] items;
+    private final String[] strings;
+    private final int header;
+
+    public ClassHeaderReader(final byte[] b, final int off, final int len) {
+        this.b = b;
+        this.off = off;
+        if (len < 10 || readInt(off) != MAGIC) {
+            throw new IllegalArgumentException("Not a class file");
+        }
+        // index the constant pool
+        final int count = readUnsignedShort(off + 8);
+        items = new int[count];
+        strings = new String[count];
+        int index = off + 10;
+        for (int i = 1; i < count; i++) {
+            items[i] = index + 1;
+            final int size;
+            switch (b[index]) {
+                case 1: // Utf8
+                    size = 3 + readUnsignedShort(index + 1);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    size = 5;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    size = 9;
+                    // takes two entries
+                    i++;
+                    break;
+                case 15: // MethodHandle
+                    size = 4;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    size = 3;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + b[index] + " at " + index);
+            }
+            index += size;
+        }
+        header = index;
+        if (header + 8 > off + len) {
+            throw new IllegalArgumentException("Truncated class file");
+        }
+    }
+
+    /**
+     * Report the class to visitor: visit(), visitField() and visitMethod()
+     * for each field and method (followed by visitEnd() on the visitors they
+     * return), and visitEnd(). No signatures, exceptions, annotations,
+     * attributes or code are reported.
+     */
+    public void accept(final ClassVisitor visitor) {
+        // minor version in the upper half, like ASM
+        final int version = readUnsignedShort(off + 6) | readUnsignedShort(off + 4) << 16;
+        int index = header;
+        final int access = readUnsignedShort(index);
+        final String name = readClass(index + 2);
+        final String superName = readClass(index + 4);
+        final String[] interfaces = new String[readUnsignedShort(index + 6)];
+        index += 8;
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = readClass(index);
+            index += 2;
+        }
+        visitor.visit(version, access, name, null, superName, interfaces);
+
+        int count = readUnsignedShort(index);
+        index += 2;
+        for (int i = 0; i < count; i++) {
+            final FieldVisitor fieldVisitor = visitor.visitField(readUnsignedShort(index),
+                    readUtf8(index + 2), readUtf8(index + 4), null, null);
+            if (fieldVisitor != null) {
+                fieldVisitor.visitEnd();
+            }
+            index = skipAttributes(index + 6);
+        }
+
+        count = readUnsignedShort(index);
+        index += 2;
+        for (int i = 0; i < count; i++) {
+            final MethodVisitor methodVisitor = visitor.visitMethod(readUnsignedShort(index),
+                    readUtf8(index + 2), readUtf8(index + 4), null, null);
+            if (methodVisitor != null) {
+                methodVisitor.visitEnd();
+            }
+            index = skipAttributes(index + 6);
+        }
+        visitor.visitEnd();
+    }
+
+    private int skipAttributes(int index) {
+        final int count = readUnsignedShort(index);
+        index += 2;
+        for (int i = 0; i < count; i++) {
+            index += 6 + readInt(index + 2);
+        }
+        return index;
+    }
+
+    private String readClass(final int index) {
+        final int item = readUnsignedShort(index);
+        return item == 0 ? null : readUtf8(items[item]);
+    }
+
+    private String readUtf8(final int index) {
+        final int item = readUnsignedShort(index);
+        String string = strings[item];
+        if (string == null) {
+            string = decodeUtf8(items[item]);
+            strings[item] = string;
+        }
+        return string;
+    }
+
+    /**
+     * Decode the modified UTF-8 of the Utf8 constant at index.
+     */
+    private String decodeUtf8(final int index) {
+        final int length = readUnsignedShort(index);
+        final char[] chars = new char[length];
+        int count = 0;
+        int i = index + 2;
+        final int end = i + length;
+        while (i < end) {
+            final int c = b[i++] & 0xFF;
+            if (c < 0x80) {
+                chars[count++] = (char) c;
+            } else if (c < 0xE0) {
+                chars[count++] = (char) (((c & 0x1F) << 6) | (b[i++] & 0x3F));
+            } else {
+                chars[count++] = (char) (((c & 0x0F) << 12) | ((b[i] & 0x3F) << 6) | (b[i + 1] & 0x3F));
+                i += 2;
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private int readUnsignedShort(final int index) {
+        return ((b[index] & 0xFF) << 8) | (b[index + 1] & 0xFF);
+    }
+
+    private int readInt(final int index) {
+        return ((b[index] & 0xFF) << 24) | ((b[index + 1] & 0xFF) << 16)
+                | ((b[index + 2] & 0xFF) << 8) | (b[index + 3] & 0xFF);
+    }
+
+}
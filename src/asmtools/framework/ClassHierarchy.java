@@ -1,19 +1,67 @@
 package asmtools.framework;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * The name space containing all known types.
+ * <p/>
+ * Names are interned in the hierarchy's SymbolTable, and types are looked up
+ * by the ID of their internal name in an array, not by hashing strings.
+ * <p/>
+ * A ClassHierarchy is thread-safe, so several ClassHierarchyBuilders can fill
+ * it at the same time: getting an existing type does not lock, creating one
+ * is atomic, and a class is read in by whoever claims it first (see
+ * ClassType.claim()). A class is safely published once it is resolved: read
+ * its supertypes and methods only after that, or after all builders are
+ * done. A class only appears among the subtypes of its supertypes once it
+ * is resolved, and a class completed by the ClassResolver only appears in
+ * the hierarchy once it is resolved.
  *
  * @author Matthias.Hauswirth@usi.ch
  */
 public final class ClassHierarchy {
 
-    private HashMap<String, Type> typeByInternalName;
+    private final SymbolTable symbolTable;
+    // name ID -> type, or null; replaced (with the lock held) when it grows
+    private volatile AtomicReferenceArray<Type> typeByNameId;
+    // descriptor ID -> parsed descriptor, or null; replaced (with the lock held) when it grows
+    private volatile AtomicReferenceArray<MethodSignature> signatureByDescriptorId;
+    // in creation order, guarded by this
+    private final ArrayList<Type> types;
+    private volatile ClassResolver classResolver;
+    private final MethodResolver methodResolver;
+    private volatile SubtypeIndex subtypeIndex;
+    // hash-consed target sets of call sites
+    private final ConcurrentHashMap<TargetSet, TargetSet> targetSets;
+    private final AtomicInteger version;
+    // changes when a class is resolved that the current SubtypeIndex does not cover
+    private final AtomicInteger subtypesVersion;
+    // name ID -> class being resolved, not added yet; guarded by this
+    private final HashMap<Integer, PendingClass> pendingClasses;
 
     public ClassHierarchy() {
-        typeByInternalName = new HashMap<String, Type>();
+        this(new SymbolTable());
+    }
+
+    /**
+     * Create a hierarchy interning its names in the given SymbolTable, e.g.
+     * the table of a ColumnarHierarchy, so names have the same IDs in both.
+     */
+    public ClassHierarchy(final SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+        typeByNameId = new AtomicReferenceArray<Type>(1024);
+        signatureByDescriptorId = new AtomicReferenceArray<MethodSignature>(1024);
+        types = new ArrayList<Type>();
+        version = new AtomicInteger();
+        subtypesVersion = new AtomicInteger();
+        targetSets = new ConcurrentHashMap<TargetSet, TargetSet>();
+        pendingClasses = new HashMap<Integer, PendingClass>();
+        methodResolver = new MethodResolver(this);
         add(PrimitiveType.BYTE);
         add(PrimitiveType.SHORT);
         add(PrimitiveType.CHAR);
@@ -24,44 +72,354 @@ public final class ClassHierarchy {
         add(PrimitiveType.BOOLEAN);
     }
 
-    private void add(final Type type) {
-        typeByInternalName.put(type.getInternalName(), type);
+    private synchronized void add(final Type type) {
+        put(symbolTable.intern(type.getInternalName()), type);
+    }
+
+    // called with the lock held
+    private void put(final int nameId, final Type type) {
+        AtomicReferenceArray<Type> array = typeByNameId;
+        if (nameId >= array.length()) {
+            array = grow(array, nameId + 1);
+            typeByNameId = array;
+        }
+        array.set(nameId, type);
+        types.add(type);
+    }
+
+    private static <T> AtomicReferenceArray<T> grow(final AtomicReferenceArray<T> array, final int minLength) {
+        final AtomicReferenceArray<T> newArray = new AtomicReferenceArray<T>(Math.max(2 * array.length(), minLength));
+        for (int i = 0; i < array.length(); i++) {
+            newArray.set(i, array.get(i));
+        }
+        return newArray;
+    }
+
+    private Type lookup(final int nameId) {
+        final AtomicReferenceArray<Type> array = typeByNameId;
+        return nameId < array.length() ? array.get(nameId) : null;
+    }
+
+    /**
+     * Get the table interning the names of the types, methods and call sites
+     * of this hierarchy.
+     */
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /**
+     * Get the service resolving method references in this hierarchy, shared
+     * by all analyses.
+     */
+    public MethodResolver getMethodResolver() {
+        return methodResolver;
+    }
+
+    /**
+     * Get the subtype index of the current version of this hierarchy,
+     * building it if the hierarchy changed since it was last built. Get it
+     * once the hierarchy is complete.
+     * <p/>
+     * The index of a view of a ColumnarHierarchy is built from the columns
+     * of the store, without creating the ClassTypes of its classes, and
+     * stays valid while they are created.
+     */
+    public SubtypeIndex getSubtypeIndex() {
+        SubtypeIndex index = subtypeIndex;
+        if (index == null || index.getVersion() != subtypesVersion.get()) {
+            final ClassResolver resolver = classResolver;
+            if (resolver instanceof ColumnarClassResolver) {
+                // only the classes outside the store get their subtypes from the fallback
+                index = new SubtypeIndex(this, ((ColumnarClassResolver) resolver).getStore());
+            } else {
+                if (resolver != null) {
+                    resolveAllSubTypes(null);
+                }
+                index = new SubtypeIndex(this);
+            }
+            subtypeIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Get the version the SubtypeIndex is built for.
+     */
+    int getSubtypesVersion() {
+        return subtypesVersion.get();
+    }
+
+    /**
+     * Let the ClassResolver create the subtypes of all classes (and of the
+     * classes that creates), so the index covers all subtypes it knows of.
+     * The classes of the given store (if not null) are left out: the index
+     * gets their subtypes from the store.
+     */
+    void resolveAllSubTypes(final ColumnarHierarchy store) {
+        // the types created meanwhile are appended, and visited too
+        for (int i = 0; ; i++) {
+            final Type type;
+            synchronized (this) {
+                if (i >= types.size()) {
+                    return;
+                }
+                type = types.get(i);
+            }
+            if (type instanceof ClassType
+                    && (store == null || store.findClass(((ClassType) type).getNameId()) < 0)) {
+                ((ClassType) type).getSubTypes();
+            }
+        }
+    }
+
+    /**
+     * Get the version of this hierarchy, which changes whenever a class is
+     * resolved, i.e. gets its supertypes, methods and modifiers (so results
+     * computed from an older version may be stale).
+     */
+    public int getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Called once the given class is resolved.
+     */
+    void changed(final ClassType classType) {
+        version.incrementAndGet();
+        final SubtypeIndex index = subtypeIndex;
+        if (index == null || !index.covers(classType)) {
+            subtypesVersion.incrementAndGet();
+        }
+    }
+
+    /**
+     * Set the resolver to complete each class created from now on (e.g. from
+     * a platform index), or null.
+     */
+    public void setClassResolver(final ClassResolver classResolver) {
+        this.classResolver = classResolver;
+    }
+
+    public ClassResolver getClassResolver() {
+        return classResolver;
     }
 
     public ClassType getOrCreateClass(final String internalName) throws TypeInconsistencyException {
-        Type type = typeByInternalName.get(internalName);
+        return getOrCreateClass(symbolTable.intern(internalName));
+    }
+
+    /**
+     * Get or create the class whose internal name has the given ID in this
+     * hierarchy's SymbolTable.
+     * <p/>
+     * With a ClassResolver, a new class is resolved before it is added to
+     * the hierarchy, so nobody sees it half-built: other threads asking for
+     * it meanwhile wait until it is added. The resolver runs without the lock
+     * of the hierarchy, so resolvers in different threads (e.g. reading
+     * class files) do not wait for each other.
+     */
+    public ClassType getOrCreateClass(final int nameId) throws TypeInconsistencyException {
+        Type type = lookup(nameId);
         if (type == null) {
-            type = new ClassType(internalName);
-            typeByInternalName.put(internalName, type);
-        } else if (!(type instanceof ClassType)) {
+            final ClassResolver resolver = classResolver;
+            final PendingClass pendingClass;
+            synchronized (this) {
+                type = lookup(nameId);
+                if (type == null) {
+                    if (resolver == null) {
+                        type = new ClassType(this, nameId);
+                        put(nameId, type);
+                        pendingClass = null;
+                    } else {
+                        final PendingClass other = pendingClasses.get(nameId);
+                        if (other == null) {
+                            pendingClass = new PendingClass(new ClassType(this, nameId));
+                            pendingClasses.put(nameId, pendingClass);
+                        } else if (other.thread == Thread.currentThread()) {
+                            // the resolver came back for it (only through a cyclic hierarchy)
+                            return other.classType;
+                        } else {
+                            type = awaitClass(nameId);
+                            pendingClass = null;
+                        }
+                    }
+                } else {
+                    pendingClass = null;
+                }
+            }
+            if (pendingClass != null) {
+                try {
+                    resolver.resolve(this, pendingClass.classType);
+                } finally {
+                    // add it even if the resolver failed: it is a class, just not a resolved one
+                    synchronized (this) {
+                        pendingClasses.remove(nameId);
+                        put(nameId, pendingClass.classType);
+                        notifyAll();
+                    }
+                }
+                type = pendingClass.classType;
+            }
+        }
+        if (!(type instanceof ClassType)) {
             throw new TypeInconsistencyException("Expected class, got " + type);
         }
         return (ClassType) type;
     }
 
+    // called with the lock held, while another thread resolves the class
+    private Type awaitClass(final int nameId) {
+        boolean interrupted = false;
+        while (pendingClasses.containsKey(nameId)) {
+            try {
+                wait();
+            } catch (final InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return lookup(nameId);
+    }
+
     public ArrayType getOrCreateArrayType(final String internalName) throws TypeInconsistencyException {
-        Type type = typeByInternalName.get(internalName);
+        final int nameId = symbolTable.intern(internalName);
+        Type type = lookup(nameId);
         if (type == null) {
+            // resolve it without the lock (getting the element class may run the ClassResolver),
+            // so it is complete when others see it
             final ArrayType arrayType = new ArrayType(internalName);
-            typeByInternalName.put(internalName, arrayType);
             arrayType.resolve(this);
-            type = arrayType;
-        } else if (!(type instanceof ArrayType)) {
+            synchronized (this) {
+                type = lookup(nameId);
+                if (type == null) {
+                    put(nameId, arrayType);
+                    type = arrayType;
+                }
+            }
+        }
+        if (!(type instanceof ArrayType)) {
             throw new TypeInconsistencyException("Expected array type, got " + type);
         }
         return (ArrayType) type;
     }
 
     public PrimitiveType getPrimitiveType(final String internalName) throws TypeInconsistencyException {
-        final Type type = typeByInternalName.get(internalName);
+        final int nameId = symbolTable.find(internalName);
+        final Type type = nameId == -1 ? null : lookup(nameId);
         if (!(type instanceof PrimitiveType)) {
             throw new TypeInconsistencyException("Expected primitive type, got " + type);
         }
         return (PrimitiveType) type;
     }
 
-    public Collection<Type> getTypes() {
-        return typeByInternalName.values();
+    /**
+     * Get the parsed form of the given method descriptor (e.g. "(I)V"). All
+     * methods and call sites with the same descriptor share one
+     * MethodSignature; the types it mentions are created in this hierarchy.
+     */
+    public MethodSignature getMethodSignature(final String descriptor) throws TypeInconsistencyException {
+        return getMethodSignature(symbolTable.intern(descriptor));
+    }
+
+    /**
+     * Get the parsed form of the method descriptor with the given ID in this
+     * hierarchy's SymbolTable.
+     */
+    public MethodSignature getMethodSignature(final int descriptorId) throws TypeInconsistencyException {
+        final AtomicReferenceArray<MethodSignature> array = signatureByDescriptorId;
+        if (descriptorId < array.length()) {
+            final MethodSignature signature = array.get(descriptorId);
+            if (signature != null) {
+                return signature;
+            }
+        }
+        // parse without the lock (creating the types takes it as needed)
+        final MethodSignature signature = MethodSignature.parse(this, descriptorId, symbolTable.get(descriptorId));
+        synchronized (this) {
+            AtomicReferenceArray<MethodSignature> current = signatureByDescriptorId;
+            if (descriptorId >= current.length()) {
+                current = grow(current, descriptorId + 1);
+                signatureByDescriptorId = current;
+            }
+            // another thread may have been faster
+            final MethodSignature existing = current.get(descriptorId);
+            if (existing != null) {
+                return existing;
+            }
+            current.set(descriptorId, signature);
+            return signature;
+        }
+    }
+
+    /**
+     * Get the shared TargetSet of the given classes: equal sets of classes
+     * get the same TargetSet.
+     */
+    public TargetSet getTargetSet(final Collection<ClassType> classes) {
+        return intern(TargetSet.of(classes));
+    }
+
+    /**
+     * Get the shared TargetSet equal to the given set.
+     */
+    public TargetSet getTargetSet(final TargetSet set) {
+        return intern(set);
+    }
+
+    private TargetSet intern(final TargetSet set) {
+        if (set.isEmpty()) {
+            return TargetSet.EMPTY;
+        }
+        final TargetSet existing = targetSets.putIfAbsent(set, set);
+        return existing == null ? set : existing;
+    }
+
+    /**
+     * Get the number of distinct non-empty TargetSets in use.
+     */
+    public int getTargetSetCount() {
+        return targetSets.size();
+    }
+
+    /**
+     * Copy the classes of this hierarchy, with their methods and call sites,
+     * into an immutable FrozenHierarchy that any number of threads can
+     * query without locking. Freeze the hierarchy once it is complete (all
+     * builders are done): later changes are not seen by the frozen copy.
+     */
+    public FrozenHierarchy freeze() {
+        final ArrayList<ClassType> classTypes = new ArrayList<ClassType>();
+        for (final Type type : getTypes()) {
+            if (type instanceof ClassType) {
+                classTypes.add((ClassType) type);
+            }
+        }
+        return new FrozenHierarchy(this, classTypes);
+    }
+
+    /**
+     * Get (a copy of) all types, in the order they were created.
+     */
+    public synchronized Collection<Type> getTypes() {
+        return new ArrayList<Type>(types);
+    }
+
+    /**
+     * A class the ClassResolver is resolving, and the thread running it.
+     */
+    private static final class PendingClass {
+
+        private final ClassType classType;
+        private final Thread thread;
+
+        PendingClass(final ClassType classType) {
+            this.classType = classType;
+            thread = Thread.currentThread();
+        }
+
     }
 
-}
\ No newline at end of file
+}
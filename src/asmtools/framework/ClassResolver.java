@@ -0,0 +1,29 @@
+package asmtools.framework;
+
+/**
+ * Completes ClassTypes on demand. A ClassHierarchy with a resolver calls it
+ * for each class it creates, so classes that are never scanned (e.g. those of
+ * the JDK) can still be resolved from some other source of information.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public interface ClassResolver {
+
+    /**
+     * Called by hierarchy right after it created classType. If the resolver
+     * knows the class, it sets its modifiers, location, super types and
+     * methods (creating further classes through hierarchy as needed) and
+     * marks it resolved; otherwise it leaves classType untouched.
+     */
+    public void resolve(ClassHierarchy hierarchy, ClassType classType) throws TypeInconsistencyException;
+
+    /**
+     * Called by hierarchy the first time somebody asks for the subtypes of
+     * classType (see ClassType.getSubTypes()). If the resolver knows all the
+     * direct subtypes of the class, it creates them through hierarchy (which
+     * resolves them, and so adds them to the subtypes of classType);
+     * otherwise it does nothing.
+     */
+    public void resolveSubTypes(ClassHierarchy hierarchy, ClassType classType) throws TypeInconsistencyException;
+
+}
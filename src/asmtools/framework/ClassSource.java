@@ -0,0 +1,24 @@
+package asmtools.framework;
+
+import java.util.List;
+
+/**
+ * A place classes are loaded from: an archive, an archive nested in another
+ * archive, or a directory tree of class files.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public interface ClassSource {
+
+    /**
+     * Get the location of this source (e.g. the name of the JAR file), which
+     * is passed on to the analyzers.
+     */
+    public String getLocation();
+
+    /**
+     * Get the entries of all class files in this source.
+     */
+    public List<ClassEntry> getClassEntries();
+
+}
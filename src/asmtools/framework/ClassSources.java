@@ -0,0 +1,119 @@
+package asmtools.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Opens the ClassSources behind paths and class paths.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ClassSources {
+
+    private ClassSources() {
+    }
+
+    /**
+     * Open the given path: a directory of class files, or an archive. Archives
+     * nested in an archive (e.g. BOOT-INF/lib/*.jar or WEB-INF/lib/*.jar) are
+     * opened in memory and returned right after the archive containing them.
+     */
+    public static List<ClassSource> open(final String path) throws IOException {
+        final ArrayList<ClassSource> sources = new ArrayList<ClassSource>();
+        if (new File(path).isDirectory()) {
+            sources.add(new DirectoryClassSource(path));
+        } else {
+            final EntryReader reader = new EntryReader();
+            try {
+                addArchive(MappedArchive.open(path), reader, sources);
+            } finally {
+                reader.close();
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Open all elements of a class path, in class path order. Elements are
+     * separated by File.pathSeparator; like with the java launcher, an element
+     * "dir/*" stands for all JAR files in directory dir.
+     */
+    public static List<ClassSource> openClasspath(final String classpath) throws IOException {
+        final ArrayList<ClassSource> sources = new ArrayList<ClassSource>();
+        for (final String path : splitClasspath(classpath)) {
+            sources.addAll(open(path));
+        }
+        return sources;
+    }
+
+    /**
+     * Get the paths of the archives and directories of a class path (see
+     * openClasspath()), in class path order.
+     */
+    public static List<String> splitClasspath(final String classpath) throws IOException {
+        final ArrayList<String> paths = new ArrayList<String>();
+        final StringTokenizer tokenizer = new StringTokenizer(classpath, File.pathSeparator);
+        while (tokenizer.hasMoreTokens()) {
+            final String element = tokenizer.nextToken();
+            if (element.endsWith("*")) {
+                final File directory = new File(element.substring(0, element.length() - 1));
+                final File[] files = directory.listFiles();
+                if (files == null) {
+                    throw new IOException("Cannot list " + directory);
+                }
+                // the launcher does not specify an order, use a reproducible one
+                Arrays.sort(files);
+                for (final File file : files) {
+                    final String name = file.getName().toLowerCase();
+                    if (file.isFile() && (name.endsWith(".jar") || name.endsWith(".zip"))) {
+                        paths.add(file.getPath());
+                    }
+                }
+            } else {
+                paths.add(element);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Open the classes of the running JDK: its modules if it has a "jrt:/"
+     * file system, otherwise the archives on its boot class path.
+     */
+    public static List<ClassSource> openPlatform() throws IOException {
+        final List<ClassSource> modules = JrtClassSource.openModules();
+        if (modules != null) {
+            return modules;
+        }
+        final String bootClasspath = System.getProperty("sun.boot.class.path");
+        if (bootClasspath == null) {
+            throw new IOException("Cannot locate the classes of the running JDK");
+        }
+        final ArrayList<ClassSource> sources = new ArrayList<ClassSource>();
+        final StringTokenizer tokenizer = new StringTokenizer(bootClasspath, File.pathSeparator);
+        while (tokenizer.hasMoreTokens()) {
+            final String element = tokenizer.nextToken();
+            // the boot class path usually lists some archives that do not exist
+            if (new File(element).exists()) {
+                sources.addAll(open(element));
+            }
+        }
+        return sources;
+    }
+
+    private static void addArchive(final MappedArchive archive,
+                                   final EntryReader reader,
+                                   final List<ClassSource> sources) throws IOException {
+        sources.add(archive);
+        for (final ArchiveEntry entry : archive.getEntries()) {
+            if (entry.getName().toLowerCase().endsWith(".jar")) {
+                addArchive(archive.openNested(entry, reader), reader, sources);
+            }
+        }
+    }
+
+}
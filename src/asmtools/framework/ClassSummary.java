@@ -0,0 +1,270 @@
+package asmtools.framework;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The parts of a class file a ScanCache keeps: the class header, the method
+ * declarations and (if the code was parsed) the call and NEW instructions
+ * of each method, in the order they appear in the code. A summary can be replayed to a ClassVisitor in place of parsing
+ * the class file again.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ClassSummary {
+
+    private static final String[] NO_STRINGS = new String[0];
+    private static final int[] NO_OPCODES = new int[0];
+
+    private final boolean withCode;
+    private final int access;
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+    private final MethodSummary[] methods;
+
+    private ClassSummary(final boolean withCode,
+                         final int access,
+                         final String name,
+                         final String superName,
+                         final String[] interfaces,
+                         final MethodSummary[] methods) {
+        this.withCode = withCode;
+        this.access = access;
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.methods = methods;
+    }
+
+    /**
+     * Does this summary contain the call and NEW instructions of the methods?
+     */
+    public boolean isWithCode() {
+        return withCode;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Replay the summary to the given visitor, as a ClassReader would.
+     */
+    public void accept(final ClassVisitor visitor) {
+        visitor.visit(0, access, name, null, superName, interfaces);
+        for (final MethodSummary method : methods) {
+            final MethodVisitor methodVisitor = visitor.visitMethod(method.access, method.name, method.desc, null, null);
+            if (methodVisitor != null) {
+                if (withCode) {
+                    methodVisitor.visitCode();
+                    final int[] opcodes = method.opcodes;
+                    final String[] operands = method.operands;
+                    int next = 0;
+                    for (final int opcode : opcodes) {
+                        if (opcode == Opcodes.NEW) {
+                            methodVisitor.visitTypeInsn(opcode, operands[next++]);
+                        } else {
+                            methodVisitor.visitMethodInsn(opcode, operands[next], operands[next + 1], operands[next + 2]);
+                            next += 3;
+                        }
+                    }
+                    methodVisitor.visitMaxs(0, 0);
+                }
+                methodVisitor.visitEnd();
+            }
+        }
+        visitor.visitEnd();
+    }
+
+    void write(final ScanCache.StringTableWriter out) throws IOException {
+        out.writeBoolean(withCode);
+        out.writeInt(access);
+        out.writeString(name);
+        out.writeString(superName);
+        out.writeStrings(interfaces);
+        out.writeInt(methods.length);
+        for (final MethodSummary method : methods) {
+            out.writeInt(method.access);
+            out.writeString(method.name);
+            out.writeString(method.desc);
+            out.writeInt(method.opcodes.length);
+            for (final int opcode : method.opcodes) {
+                out.writeByte(opcode);
+            }
+            out.writeStrings(method.operands);
+        }
+    }
+
+    static ClassSummary read(final DataInput in, final String[] strings) throws IOException {
+        final boolean withCode = in.readBoolean();
+        final int access = in.readInt();
+        final String name = ScanCache.readString(in, strings);
+        final String superName = ScanCache.readString(in, strings);
+        final String[] interfaces = ScanCache.readStrings(in, strings);
+        final MethodSummary[] methods = new MethodSummary[in.readInt()];
+        for (int i = 0; i < methods.length; i++) {
+            final int methodAccess = in.readInt();
+            final String methodName = ScanCache.readString(in, strings);
+            final String desc = ScanCache.readString(in, strings);
+            final MethodSummary method = new MethodSummary(methodAccess, methodName, desc);
+            method.opcodes = new int[in.readInt()];
+            for (int j = 0; j < method.opcodes.length; j++) {
+                method.opcodes[j] = in.readUnsignedByte();
+            }
+            method.operands = ScanCache.readStrings(in, strings);
+            methods[i] = method;
+        }
+        return new ClassSummary(withCode, access, name, superName, interfaces, methods);
+    }
+
+
+    private static final class MethodSummary {
+
+        final int access;
+        final String name;
+        final String desc;
+        // the opcode of each call and NEW instruction
+        int[] opcodes;
+        // the owner, name and desc of each call instruction,
+        // the type of each NEW instruction
+        String[] operands;
+
+        MethodSummary(final int access, final String name, final String desc) {
+            this.access = access;
+            this.name = name;
+            this.desc = desc;
+            this.opcodes = NO_OPCODES;
+            this.operands = NO_STRINGS;
+        }
+
+    }
+
+
+    /**
+     * A ClassVisitor that builds the summary of the class it visits.
+     */
+    static final class Recorder extends EmptyVisitor {
+
+        private final boolean withCode;
+        private final ArrayList<MethodSummary> methods;
+        private int access;
+        private String name;
+        private String superName;
+        private String[] interfaces;
+
+        Recorder(final boolean withCode) {
+            this.withCode = withCode;
+            this.methods = new ArrayList<MethodSummary>();
+        }
+
+        ClassSummary getSummary() {
+            return new ClassSummary(withCode, access, name, superName, interfaces,
+                    methods.toArray(new MethodSummary[methods.size()]));
+        }
+
+        public void visit(final int version,
+                          final int access,
+                          final String name,
+                          final String signature,
+                          final String superName,
+                          final String[] interfaces) {
+            this.access = access;
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces == null ? NO_STRINGS : interfaces;
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            return null;
+        }
+
+        public FieldVisitor visitField(final int access,
+                                       final String name,
+                                       final String desc,
+                                       final String signature,
+                                       final Object value) {
+            return null;
+        }
+
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String desc,
+                                         final String signature,
+                                         final String[] exceptions) {
+            final MethodSummary method = new MethodSummary(access, name, desc);
+            methods.add(method);
+            return withCode ? new MethodRecorder(method) : null;
+        }
+
+    }
+
+
+    /**
+     * A MethodVisitor that records the call and NEW instructions of a method.
+     */
+    private static final class MethodRecorder extends EmptyVisitor {
+
+        private final MethodSummary method;
+        private final ArrayList<String> operands;
+        private int[] opcodes;
+        private int count;
+
+        MethodRecorder(final MethodSummary method) {
+            this.method = method;
+            this.operands = new ArrayList<String>();
+            this.opcodes = new int[8];
+        }
+
+        public AnnotationVisitor visitAnnotationDefault() {
+            return null;
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            return null;
+        }
+
+        public AnnotationVisitor visitParameterAnnotation(final int parameter, final String desc, final boolean visible) {
+            return null;
+        }
+
+        public void visitTypeInsn(final int opcode, final String type) {
+            if (opcode == Opcodes.NEW) {
+                addOpcode(opcode);
+                operands.add(type);
+            }
+        }
+
+        public void visitMethodInsn(final int opcode, final String owner, final String name, final String desc) {
+            addOpcode(opcode);
+            operands.add(owner);
+            operands.add(name);
+            operands.add(desc);
+        }
+
+        public void visitEnd() {
+            method.opcodes = new int[count];
+            System.arraycopy(opcodes, 0, method.opcodes, 0, count);
+            method.operands = operands.toArray(new String[operands.size()]);
+        }
+
+        private void addOpcode(final int opcode) {
+            if (count == opcodes.length) {
+                final int[] grown = new int[2 * count];
+                System.arraycopy(opcodes, 0, grown, 0, count);
+                opcodes = grown;
+            }
+            opcodes[count++] = opcode;
+        }
+
+    }
+
+}
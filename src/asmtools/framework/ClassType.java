@@ -4,26 +4,61 @@ import org.objectweb.asm.Opcodes;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A ClassType represents a class or an interface.
+ * <p/>
+ * A class is read in (its location, modifiers, supertypes and methods set)
+ * by one thread, the one that claimed it; setResolved() then publishes it to
+ * all threads, and adds it to the subtypes of its supertypes. Subtypes may be
+ * added by any thread at any time.
  *
  * @author Matthias.Hauswirth@usi.ch
  */
 public final class ClassType implements Type {
 
-    private final String internalName;
-    private boolean resolved;
+    private final ClassHierarchy hierarchy;
+    private final SymbolTable symbolTable;
+    private final int nameId;
+    private boolean claimed;
+    private volatile boolean resolved;
+    // set once the ClassResolver was asked for the subtypes
+    private volatile boolean subTypesResolved;
     private String location;
     private int modifiers;
     private ClassType superClass;
-    private ArrayList<ClassType> interfaces;
-    private ArrayList<Method> methods;
-    private ArrayList<ClassType> subTypes;
+    private final ArrayList<ClassType> interfaces;
+    private final ArrayList<Method> methods;
+    private final MethodIndex methodIndex;
+    private final ConcurrentLinkedQueue<ClassType> subTypes;
 
     /**
-     * Create a ClassType given an internal name (without "L" prefix or ";"
-     * suffix).
+     * Create a ClassType given the ID of its internal name (without "L" prefix
+     * or ";" suffix) in the SymbolTable of its hierarchy. Use
+     * ClassHierarchy.getOrCreateClass() to get a ClassType.
+     *
+     * @param nameId the ID of the internal name of the class, e.g. "java/lang/Object" (class
+     *               Object in package java.lang) or "java/awt/geom/Point2D$Double"
+     *               (class Double in class Point2D in package java.awt.geom) or
+     *               "TypeInDefaultPackage" (class TypeInDefaultPackage in the
+     *               default package).
+     */
+    ClassType(final ClassHierarchy hierarchy, final int nameId) {
+        this.hierarchy = hierarchy;
+        this.symbolTable = hierarchy.getSymbolTable();
+        this.nameId = nameId;
+        this.interfaces = new ArrayList<ClassType>();
+        this.methods = new ArrayList<Method>();
+        this.methodIndex = new MethodIndex();
+        this.subTypes = new ConcurrentLinkedQueue<ClassType>();
+    }
+
+    /**
+     * Create a ClassType given its internal name (without "L" prefix or ";"
+     * suffix), interned in the SymbolTable of the given hierarchy. The class
+     * is not added to the hierarchy: use ClassHierarchy.getOrCreateClass() to
+     * get the ClassType of a class in a hierarchy.
      *
      * @param internalName the internal name of the class, e.g. "java/lang/Object" (class
      *                     Object in package java.lang) or "java/awt/geom/Point2D$Double"
@@ -31,15 +66,27 @@ public final class ClassType implements Type {
      *                     "TypeInDefaultPackage" (class TypeInDefaultPackage in the
      *                     default package).
      */
-    public ClassType(final String internalName) {
-        this.internalName = internalName;
-        this.interfaces = new ArrayList<ClassType>();
-        this.methods = new ArrayList<Method>();
-        this.subTypes = new ArrayList<ClassType>();
+    public ClassType(final ClassHierarchy hierarchy, final String internalName) {
+        this(hierarchy, hierarchy.getSymbolTable().intern(internalName));
     }
 
     public String getInternalName() {
-        return internalName;
+        return symbolTable.get(nameId);
+    }
+
+    /**
+     * Get the ID of the internal name in the hierarchy's SymbolTable.
+     */
+    public int getNameId() {
+        return nameId;
+    }
+
+    SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    ClassHierarchy getHierarchy() {
+        return hierarchy;
     }
 
     /**
@@ -50,6 +97,7 @@ public final class ClassType implements Type {
      * type is anonymous is "[]".
      */
     public String getSimpleName() {
+        final String internalName = getInternalName();
         final int dollar = internalName.lastIndexOf('$');
         if (dollar > -1) {
             final String n = internalName.substring(dollar);
@@ -72,12 +120,34 @@ public final class ClassType implements Type {
         }
     }
 
+    /**
+     * Claim this class for reading it in. Only one caller gets true; the
+     * others (and everybody once the class is resolved) get false, and must
+     * not read in this class.
+     */
+    public synchronized boolean claim() {
+        if (claimed || resolved) {
+            return false;
+        }
+        claimed = true;
+        return true;
+    }
+
     /**
      * Do this after you have completed reading this class (classes that were
      * never read, but referenced by other classes, will appear as not resolved)
      */
     public void setResolved() {
+        // only now, so whoever finds this class among the subtypes of its supertypes sees it complete
+        if (superClass != null) {
+            superClass.subTypes.add(this);
+        }
+        for (final ClassType interfa : interfaces) {
+            interfa.subTypes.add(this);
+        }
         resolved = true;
+        // once per class, not per member: results computed before are stale
+        hierarchy.changed(this);
     }
 
     public boolean isResolved() {
@@ -105,8 +175,6 @@ public final class ClassType implements Type {
      */
     public void setSuperClass(final ClassType superClass) {
         this.superClass = superClass;
-        // automatically maintain subtypes
-        superClass.subTypes.add(this);
     }
 
     /**
@@ -125,8 +193,6 @@ public final class ClassType implements Type {
      */
     public void addInterface(final ClassType interfa) {
         interfaces.add(interfa);
-        // automatically maintain subtypes
-        interfa.subTypes.add(this);
     }
 
     /**
@@ -139,12 +205,36 @@ public final class ClassType implements Type {
 
     /**
      * Get all the currently known subtypes (interfaces and/or classes) of this
-     * interface or class.
+     * interface or class. A subtype is known once it is resolved. The first
+     * call lets the ClassResolver of the hierarchy (if any) add the subtypes
+     * it knows of (see ClassResolver.resolveSubTypes()).
      */
     public Collection<ClassType> getSubTypes() {
+        if (!subTypesResolved) {
+            resolveSubTypes();
+        }
         return subTypes;
     }
 
+    private void resolveSubTypes() {
+        // (the queue is not locked by anybody else)
+        synchronized (subTypes) {
+            if (subTypesResolved) {
+                return;
+            }
+            final ClassResolver resolver = hierarchy.getClassResolver();
+            if (resolver != null) {
+                try {
+                    resolver.resolveSubTypes(hierarchy, this);
+                } catch (final TypeInconsistencyException ex) {
+                    // the subtypes that could be created are there
+                    System.err.println(ex);
+                }
+            }
+            subTypesResolved = true;
+        }
+    }
+
     /**
      * Add a method to this class when you read in the clas. The class should
      * contain all the methods it explicitly declares (including abstract
@@ -152,6 +242,7 @@ public final class ClassType implements Type {
      */
     public void addMethod(final Method method) {
         methods.add(method);
+        methodIndex.add(method);
     }
 
     /**
@@ -170,14 +261,32 @@ public final class ClassType implements Type {
      * @return the Method or null
      */
     public Method getMethod(final String name, final String descriptor) {
-        for (final Method method : methods) {
-            if (method.getName().equals(name) && method.getDescriptor().equals(descriptor)) {
-                return method;
-            }
-        }
-        // no such method declared in this class
+        final int nameId = symbolTable.find(name);
+        final int descriptorId = symbolTable.find(descriptor);
+        // a name never interned is not the name of any method
+        return nameId == -1 || descriptorId == -1 ? null : getMethod(nameId, descriptorId);
+    }
+
+    /**
+     * Get the method with the given name and descriptor IDs, if such a method
+     * is declared in this class.
+     *
+     * @return the Method or null
+     */
+    public Method getMethod(final int nameId, final int descriptorId) {
+        // null if not declared in this class
         // (one still could be declared in a superclass or interface!)
-        return null;
+        return methodIndex.get(nameId, descriptorId);
+    }
+
+    /**
+     * Does this class declare a concrete (non-abstract) method with the given
+     * name and descriptor IDs? Takes constant time, however many methods the
+     * class declares.
+     */
+    public boolean hasConcreteMethod(final int nameId, final int descriptorId) {
+        final Method method = methodIndex.get(nameId, descriptorId);
+        return method != null && !method.isAbstract();
     }
 
     /**
@@ -0,0 +1,35 @@
+package asmtools.framework;
+
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * Implement this interface if you want to be called by an ArchiveScanner with
+ * the events of ASM's ClassReader, instead of with a complete ClassNode.
+ * The visitors of all ClassVisitorAnalyzers registered with a scanner share
+ * one ClassReader.accept() call per class, and no tree of the class is built.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public interface ClassVisitorAnalyzer {
+
+    /**
+     * Get the visitor for the next class read from the given location, or
+     * null if this analyzer is not interested. Called once per class.
+     */
+    public ClassVisitor getClassVisitor(String location);
+
+    /**
+     * Return true if getClassVisitor() may be called, and the returned
+     * visitors may be used, concurrently from several threads. Analyzers
+     * returning false are never called concurrently with any other analyzer
+     * that is not thread-safe.
+     */
+    public boolean isThreadSafe();
+
+    /**
+     * Get the parts of a class this analyzer can do without, as ClassReader
+     * flags (see ClassAnalyzer.getParsingOptions()).
+     */
+    public int getParsingOptions();
+
+}
@@ -0,0 +1,206 @@
+package asmtools.framework;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ClassResolver that reads the header (modifiers, supertypes and methods)
+ * of a class from its entry in a ClasspathIndex the first time a hierarchy
+ * asks for the class. Nothing on the class path is read up front, so a
+ * hierarchy only holds the classes somebody touched, and their supertypes.
+ * Classes that are not on the class path are passed on to a fallback
+ * resolver, e.g. a SnapshotClassResolver for the JDK.
+ * <p/>
+ * Classes an ArchiveScanner scans anyway (with their call sites) should be
+ * left to the scanner, see setScanned().
+ * <p/>
+ * Threads resolving classes at the same time read them with EntryReaders of
+ * their own, without waiting for each other.
+ * <p/>
+ * Like with a SnapshotClassResolver, subtypes are only known for classes
+ * read this way: a class on the class path that is never asked for does not
+ * appear among the subtypes of its supertypes.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ClasspathClassResolver implements ClassResolver {
+
+    private final ClasspathIndex index;
+    private final ClassResolver fallback;
+    // one reader per thread, all of them for close()
+    private final ThreadLocal<EntryReader> reader;
+    private final ArrayList<EntryReader> readers;
+    private final HashSet<String> scannedLocations;
+    private EntryFilter scannedFilter;
+    private final AtomicInteger resolvedCount;
+
+    /**
+     * @param fallback the resolver for classes not on the class path, or null
+     */
+    public ClasspathClassResolver(final ClasspathIndex index, final ClassResolver fallback) {
+        this.index = index;
+        this.fallback = fallback;
+        readers = new ArrayList<EntryReader>();
+        reader = new ThreadLocal<EntryReader>() {
+            protected EntryReader initialValue() {
+                final EntryReader entryReader = new EntryReader();
+                synchronized (readers) {
+                    readers.add(entryReader);
+                }
+                return entryReader;
+            }
+        };
+        scannedLocations = new HashSet<String>();
+        resolvedCount = new AtomicInteger();
+    }
+
+    /**
+     * Leave the classes an ArchiveScanner scans from the given paths (those
+     * accepted by filter, or all if filter is null) to the scanner. Set this
+     * before the hierarchy is used.
+     */
+    public void setScanned(final List<String> paths, final EntryFilter filter) {
+        for (final String path : paths) {
+            final List<ClassSource> sources = index.getSources(path);
+            if (sources != null) {
+                for (final ClassSource source : sources) {
+                    scannedLocations.add(source.getLocation());
+                }
+            }
+        }
+        scannedFilter = filter;
+    }
+
+    /**
+     * Get the number of classes read from the class path so far.
+     */
+    public int getResolvedCount() {
+        return resolvedCount.get();
+    }
+
+    /**
+     * Release the native resources of this resolver (it cannot read classes
+     * afterwards).
+     */
+    public void close() {
+        synchronized (readers) {
+            for (final EntryReader entryReader : readers) {
+                entryReader.close();
+            }
+            readers.clear();
+        }
+    }
+
+    public void resolve(final ClassHierarchy hierarchy, final ClassType classType) throws TypeInconsistencyException {
+        final String className = classType.getInternalName();
+        final ClassEntry entry = index.getEntry(className);
+        if (entry == null) {
+            if (fallback != null) {
+                fallback.resolve(hierarchy, classType);
+            }
+            return;
+        }
+        final ClassSource source = index.getSource(className);
+        if (scannedLocations.contains(source.getLocation())
+                && (scannedFilter == null || scannedFilter.accept(entry.getName()))) {
+            return;
+        }
+        if (!classType.claim()) {
+            return;
+        }
+        // read the whole header before creating the supertypes:
+        // that resolves them, and reuses the reader
+        final HeaderCollector header = new HeaderCollector();
+        try {
+            final byte[] bytes = entry.read(reader.get());
+            new ClassHeaderReader(bytes, 0, entry.getSize()).accept(header);
+        } catch (final IOException ex) {
+            throw new TypeInconsistencyException("Cannot read " + className
+                    + " from " + source.getLocation() + ": " + ex.getMessage());
+        } catch (final IllegalArgumentException ex) {
+            throw new TypeInconsistencyException("Cannot parse " + className
+                    + " from " + source.getLocation() + ": " + ex.getMessage());
+        }
+        resolvedCount.incrementAndGet();
+        classType.setModifiers(header.access);
+        classType.setLocation(source.getLocation());
+        // java/lang/Object has no superclass
+        if (header.superName != null) {
+            classType.setSuperClass(hierarchy.getOrCreateClass(header.superName));
+        }
+        for (final String interfaceName : header.interfaces) {
+            classType.addInterface(hierarchy.getOrCreateClass(interfaceName));
+        }
+        for (int i = 0; i < header.methodNames.size(); i++) {
+            classType.addMethod(new Method(classType,
+                    header.methodNames.get(i), header.methodDescriptors.get(i), header.methodModifiers.get(i)));
+        }
+        classType.setResolved();
+    }
+
+    public void resolveSubTypes(final ClassHierarchy hierarchy, final ClassType classType)
+            throws TypeInconsistencyException {
+        // the class path is not indexed by supertype, but the fallback may be
+        if (fallback != null && index.getEntry(classType.getInternalName()) == null) {
+            fallback.resolveSubTypes(hierarchy, classType);
+        }
+    }
+
+
+    /**
+     * Collects the header of one class.
+     */
+    private static final class HeaderCollector extends EmptyVisitor {
+
+        private int access;
+        private String superName;
+        private String[] interfaces;
+        private final ArrayList<String> methodNames = new ArrayList<String>();
+        private final ArrayList<String> methodDescriptors = new ArrayList<String>();
+        private final ArrayList<Integer> methodModifiers = new ArrayList<Integer>();
+
+        public void visit(final int version,
+                          final int access,
+                          final String name,
+                          final String signature,
+                          final String superName,
+                          final String[] interfaces) {
+            this.access = access;
+            this.superName = superName;
+            this.interfaces = interfaces;
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            return null;
+        }
+
+        public FieldVisitor visitField(final int access,
+                                       final String name,
+                                       final String desc,
+                                       final String signature,
+                                       final Object value) {
+            return null;
+        }
+
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String desc,
+                                         final String signature,
+                                         final String[] exceptions) {
+            methodNames.add(name);
+            methodDescriptors.add(desc);
+            methodModifiers.add(access);
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,273 @@
+package asmtools.framework;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Knows which archive or directory of a class path each class is loaded
+ * from, and its entry there. Like a class loader, the first element of the
+ * class path that contains a class wins; the same class in later elements is
+ * shadowed. A ClasspathClassResolver uses the entries to read classes only
+ * when a ClassHierarchy first asks for them.
+ * <p/>
+ * Building the index only reads the central directories of the archives
+ * (resp. lists the directories), no class is read. An ArchiveScanner with an
+ * index scans each class only from the element it is loaded from, and scans
+ * the ClassSources the index already opened.
+ * <p/>
+ * Classes are indexed by their internal names, also in archives that do not
+ * keep them at the root: Spring Boot archives (BOOT-INF/classes/), web
+ * archives (WEB-INF/classes/) and multi-release JARs, where, like on the
+ * running JVM, the entry of the highest version up to the JVM's version
+ * (META-INF/versions/N/) shadows the others. Like the JVM, the index only
+ * takes an archive for a multi-release JAR if its manifest says
+ * "Multi-Release: true"; elsewhere, META-INF/versions/ is ignored.
+ * <p/>
+ * Add all elements first, then share the index: it is not safe to add
+ * elements while it is in use.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ClasspathIndex {
+
+    // prefixes of the entry names of classes that are not at the root of an archive
+    private static final String[] CLASS_PREFIXES = {"BOOT-INF/classes/", "WEB-INF/classes/"};
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final int RUNTIME_VERSION = Runtime.version().feature();
+
+    private final LinkedHashMap<String, List<ClassSource>> sourcesByPath;
+    // class name -> source it is loaded from, resp. its entry there
+    private final HashMap<String, ClassSource> sourceByClass;
+    private final HashMap<String, ClassEntry> entryByClass;
+    // class name -> locations of the sources it is shadowed in
+    private final HashMap<String, List<String>> shadowedLocationsByClass;
+    // the locations of the sources added, and of those that are multi-release JARs
+    private final HashSet<String> locations;
+    private final HashSet<String> multiReleaseLocations;
+
+    public ClasspathIndex() {
+        sourcesByPath = new LinkedHashMap<String, List<ClassSource>>();
+        sourceByClass = new HashMap<String, ClassSource>();
+        entryByClass = new HashMap<String, ClassEntry>();
+        shadowedLocationsByClass = new HashMap<String, List<String>>();
+        locations = new HashSet<String>();
+        multiReleaseLocations = new HashSet<String>();
+    }
+
+    /**
+     * Build the index of the given archives and directories, in class path
+     * order. Paths that cannot be opened are left out (scanning them will
+     * report the problem).
+     */
+    public static ClasspathIndex build(final List<String> paths) {
+        final ClasspathIndex index = new ClasspathIndex();
+        for (final String path : paths) {
+            try {
+                index.add(path);
+            } catch (final IOException ex) {
+                // not on the class path, as far as the index is concerned
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Append the archive (with its nested archives) or directory with the
+     * given path to the class path. Adding a path a second time has no
+     * effect.
+     */
+    public void add(final String path) throws IOException {
+        if (sourcesByPath.containsKey(path)) {
+            return;
+        }
+        final List<ClassSource> sources = ClassSources.open(path);
+        sourcesByPath.put(path, Collections.unmodifiableList(sources));
+        final EntryReader reader = new EntryReader();
+        try {
+            for (final ClassSource source : sources) {
+                locations.add(source.getLocation());
+                if (source instanceof MappedArchive && ((MappedArchive) source).isMultiRelease(reader)) {
+                    multiReleaseLocations.add(source.getLocation());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        for (final ClassSource source : sources) {
+            final String location = source.getLocation();
+            final boolean multiRelease = multiReleaseLocations.contains(location);
+            for (final ClassEntry entry : source.getClassEntries()) {
+                final String entryName = entry.getName();
+                final int version = getVersion(entryName);
+                final String className = getClassName(entryName);
+                if ((version > 0 && (!multiRelease || version > RUNTIME_VERSION)) || className.endsWith("module-info")) {
+                    // not loaded by this JVM resp. not a class
+                    continue;
+                }
+                final ClassSource winner = sourceByClass.get(className);
+                if (winner == null) {
+                    sourceByClass.put(className, source);
+                    entryByClass.put(className, entry);
+                } else if (winner.getLocation().equals(location)) {
+                    // several versions of the class in a multi-release JAR
+                    if (version > getVersion(entryByClass.get(className).getName())) {
+                        entryByClass.put(className, entry);
+                    }
+                } else {
+                    List<String> shadowedLocations = shadowedLocationsByClass.get(className);
+                    if (shadowedLocations == null) {
+                        shadowedLocations = new ArrayList<String>(1);
+                        shadowedLocationsByClass.put(className, shadowedLocations);
+                    }
+                    shadowedLocations.add(location);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the sources opened for the given path, or null if the path was not
+     * added.
+     */
+    public List<ClassSource> getSources(final String path) {
+        return sourcesByPath.get(path);
+    }
+
+    /**
+     * Get the number of distinct classes on the class path.
+     */
+    public int getClassCount() {
+        return sourceByClass.size();
+    }
+
+    /**
+     * Get the location of the source the class with the given internal name
+     * is loaded from, or null if it is not on the class path.
+     */
+    public String getLocation(final String className) {
+        final ClassSource source = sourceByClass.get(className);
+        return source == null ? null : source.getLocation();
+    }
+
+    /**
+     * Get the source the class with the given internal name is loaded from,
+     * or null if it is not on the class path.
+     */
+    public ClassSource getSource(final String className) {
+        return sourceByClass.get(className);
+    }
+
+    /**
+     * Get the entry the class with the given internal name is loaded from,
+     * or null if it is not on the class path.
+     */
+    public ClassEntry getEntry(final String className) {
+        return entryByClass.get(className);
+    }
+
+    /**
+     * Is the given entry of source the one its class is loaded from? Entries
+     * of sources that are not part of the index are always visible.
+     */
+    public boolean isVisible(final ClassSource source, final ClassEntry entry) {
+        final String entryName = entry.getName();
+        final String className = getClassName(entryName);
+        final ClassSource winner = sourceByClass.get(className);
+        if (winner == null) {
+            final int version = getVersion(entryName);
+            if (version == 0) {
+                return true;
+            }
+            // a versioned entry, which a source of the index only has if it is a multi-release JAR
+            return version <= RUNTIME_VERSION
+                    && (!locations.contains(source.getLocation()) || multiReleaseLocations.contains(source.getLocation()));
+        }
+        return winner.getLocation().equals(source.getLocation())
+                && entryByClass.get(className).getName().equals(entryName);
+    }
+
+    /**
+     * Get the classes that appear in more than one element of the class
+     * path, ordered by name, each with the locations it is shadowed in (in
+     * class path order).
+     */
+    public Map<String, List<String>> getShadowedClasses() {
+        final TreeMap<String, List<String>> shadowed = new TreeMap<String, List<String>>();
+        for (final Map.Entry<String, List<String>> entry : shadowedLocationsByClass.entrySet()) {
+            shadowed.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+        }
+        return shadowed;
+    }
+
+    /**
+     * Print which location each shadowed class is loaded from, and which
+     * locations it is shadowed in.
+     */
+    public void printShadowedClasses(final PrintStream out) {
+        final Map<String, List<String>> shadowed = getShadowedClasses();
+        for (final Map.Entry<String, List<String>> entry : shadowed.entrySet()) {
+            out.println(entry.getKey() + ": loaded from " + getLocation(entry.getKey())
+                    + ", shadowed in " + entry.getValue());
+        }
+        out.println(shadowed.size() + " of " + getClassCount() + " classes are shadowed");
+    }
+
+    /**
+     * Get the internal name of the class in the entry with the given name,
+     * e.g. "com/acme/Foo" for "com/acme/Foo.class",
+     * "BOOT-INF/classes/com/acme/Foo.class" or
+     * "META-INF/versions/11/com/acme/Foo.class".
+     */
+    static String getClassName(final String entryName) {
+        int start = skipClassPrefix(entryName);
+        if (getVersion(entryName) > 0) {
+            start = entryName.indexOf('/', start + VERSIONS_PREFIX.length()) + 1;
+        }
+        // strip ".class"
+        return entryName.substring(start, entryName.length() - 6);
+    }
+
+    /**
+     * Get the version N of an entry in META-INF/versions/N/ of a
+     * multi-release JAR, or 0 for any other entry.
+     */
+    private static int getVersion(final String entryName) {
+        final int start = skipClassPrefix(entryName);
+        if (!entryName.startsWith(VERSIONS_PREFIX, start)) {
+            return 0;
+        }
+        final int versionStart = start + VERSIONS_PREFIX.length();
+        final int slash = entryName.indexOf('/', versionStart);
+        if (slash == -1) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(entryName.substring(versionStart, slash));
+        } catch (final NumberFormatException ex) {
+            // not a version directory
+            return 0;
+        }
+    }
+
+    /**
+     * Get the index after the BOOT-INF/classes/ resp. WEB-INF/classes/
+     * prefix of the given entry name, or 0 if it has none.
+     */
+    private static int skipClassPrefix(final String entryName) {
+        for (final String prefix : CLASS_PREFIXES) {
+            if (entryName.startsWith(prefix)) {
+                return prefix.length();
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,82 @@
+package asmtools.framework;
+
+/**
+ * A ClassResolver that completes classes from a ColumnarHierarchy, so a
+ * ClassHierarchy only holds ClassType and Method objects for the classes
+ * somebody actually asked for (and their supertypes). The hierarchy must
+ * share the SymbolTable of the store (see ColumnarHierarchy.newView()).
+ * <p/>
+ * The subtypes of a class are created from the store when somebody first
+ * asks for them, so analyses walking down the hierarchy (e.g. CHA) see all
+ * the subtypes in the store. Classes that are not in the store are passed
+ * on to a fallback resolver, e.g. a SnapshotClassResolver for the JDK.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ColumnarClassResolver implements ClassResolver {
+
+    private final ColumnarHierarchy store;
+    private final ClassResolver fallback;
+
+    public ColumnarClassResolver(final ColumnarHierarchy store) {
+        this(store, null);
+    }
+
+    /**
+     * @param fallback the resolver for classes not in the store, or null
+     */
+    public ColumnarClassResolver(final ColumnarHierarchy store, final ClassResolver fallback) {
+        this.store = store;
+        this.fallback = fallback;
+    }
+
+    ColumnarHierarchy getStore() {
+        return store;
+    }
+
+    public void resolve(final ClassHierarchy hierarchy, final ClassType classType) throws TypeInconsistencyException {
+        if (hierarchy.getSymbolTable() != store.getSymbolTable()) {
+            throw new IllegalArgumentException("The hierarchy does not share the SymbolTable of the store");
+        }
+        final int c = store.findClass(classType.getNameId());
+        if (c < 0) {
+            if (fallback != null) {
+                fallback.resolve(hierarchy, classType);
+            }
+            return;
+        }
+        if (!classType.claim()) {
+            return;
+        }
+        classType.setModifiers(store.getClassModifiers(c));
+        classType.setLocation(store.getLocation(c));
+        final int superClassNameId = store.getSuperClassNameId(c);
+        if (superClassNameId >= 0) {
+            classType.setSuperClass(hierarchy.getOrCreateClass(superClassNameId));
+        }
+        for (int i = 0; i < store.getInterfaceCount(c); i++) {
+            classType.addInterface(hierarchy.getOrCreateClass(store.getInterfaceNameId(c, i)));
+        }
+        for (int i = 0; i < store.getMethodCount(c); i++) {
+            final int m = store.getMethod(c, i);
+            classType.addMethod(new Method(classType,
+                    store.getMethodNameId(m), store.getMethodDescriptorId(m), store.getMethodModifiers(m)));
+        }
+        classType.setResolved();
+    }
+
+    public void resolveSubTypes(final ClassHierarchy hierarchy, final ClassType classType)
+            throws TypeInconsistencyException {
+        final int c = store.findClass(classType.getNameId());
+        if (c < 0) {
+            if (fallback != null) {
+                fallback.resolveSubTypes(hierarchy, classType);
+            }
+            return;
+        }
+        for (int i = 0; i < store.getSubTypeCount(c); i++) {
+            hierarchy.getOrCreateClass(store.getClassNameId(store.getSubType(c, i)));
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+package asmtools.framework;
+
+/**
+ * A class hierarchy (classes with their supertypes and methods) stored as
+ * columns of ints off the heap, for corpora too large for one ClassType
+ * and Method object per class and method. Each class is a row of the class
+ * columns, each method a row of the method columns; names are IDs in a
+ * SymbolTable. The interfaces of a class and its methods are contiguous
+ * ranges of the interface column resp. the method rows, and the subtypes
+ * are computed (into two more columns) when first asked for.
+ * <p/>
+ * Classes are identified by their row, e.g. findClass() returns the row of a
+ * class or -1. A class that is only referenced (as a supertype) has no row,
+ * so supertypes are stored as names; getSuperClass() and getInterface()
+ * return -1 for classes without a row.
+ * <p/>
+ * newView() presents the familiar model on top of the columns: a
+ * ClassHierarchy that creates the ClassType and Method objects of a class
+ * only when somebody asks for it, or for its subtypes (see
+ * ColumnarClassResolver).
+ * <p/>
+ * Adding classes is thread-safe (so a ColumnarHierarchyBuilder can run on
+ * several threads), but add all classes first, then query: it is not safe
+ * to query while classes are being added.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ColumnarHierarchy {
+
+    private final SymbolTable symbolTable;
+
+    // class columns
+    private final IntColumn classNames;
+    private final IntColumn classModifiers;
+    private final IntColumn classLocations;
+    private final IntColumn superClassNames;
+    private final IntColumn firstInterfaces;
+    private final IntColumn interfaceCounts;
+    private final IntColumn firstMethods;
+    private final IntColumn methodCounts;
+    // interface names of all classes
+    private final IntColumn interfaceNames;
+    // method columns
+    private final IntColumn methodClasses;
+    private final IntColumn methodNames;
+    private final IntColumn methodDescriptors;
+    private final IntColumn methodModifiers;
+    // name ID -> row + 1, or 0
+    private final IntColumn classByNameId;
+    // row -> first index in subTypes, classCount + 1 entries (null until computed)
+    private volatile IntColumn firstSubTypes;
+    private volatile IntColumn subTypes;
+
+    public ColumnarHierarchy() {
+        this(new SymbolTable());
+    }
+
+    public ColumnarHierarchy(final SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+        classNames = new IntColumn(1024);
+        classModifiers = new IntColumn(1024);
+        classLocations = new IntColumn(1024);
+        superClassNames = new IntColumn(1024);
+        firstInterfaces = new IntColumn(1024);
+        interfaceCounts = new IntColumn(1024);
+        firstMethods = new IntColumn(1024);
+        methodCounts = new IntColumn(1024);
+        interfaceNames = new IntColumn(1024);
+        methodClasses = new IntColumn(8192);
+        methodNames = new IntColumn(8192);
+        methodDescriptors = new IntColumn(8192);
+        methodModifiers = new IntColumn(8192);
+        classByNameId = new IntColumn(4096);
+    }
+
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /**
+     * Add a class with its methods (all names are IDs in the SymbolTable).
+     * If a class with that name was added before, the first one wins.
+     *
+     * @param superClassNameId -1 for java/lang/Object
+     * @param locationId       the location it was read from, or -1
+     * @return the row of the class, or -1 if it was added before
+     */
+    public synchronized int addClass(final int nameId,
+                                     final int modifiers,
+                                     final int superClassNameId,
+                                     final int[] interfaceNameIds,
+                                     final int locationId,
+                                     final int methodCount,
+                                     final int[] methodNameIds,
+                                     final int[] methodDescriptorIds,
+                                     final int[] methodModifierFlags) {
+        if (nameId < classByNameId.size() && classByNameId.get(nameId) != 0) {
+            return -1;
+        }
+        final int row = classNames.add(nameId);
+        classModifiers.add(modifiers);
+        classLocations.add(locationId);
+        superClassNames.add(superClassNameId);
+        firstInterfaces.add(interfaceNames.size());
+        interfaceCounts.add(interfaceNameIds.length);
+        for (final int interfaceNameId : interfaceNameIds) {
+            interfaceNames.add(interfaceNameId);
+        }
+        firstMethods.add(methodNames.size());
+        methodCounts.add(methodCount);
+        for (int i = 0; i < methodCount; i++) {
+            methodClasses.add(row);
+            methodNames.add(methodNameIds[i]);
+            methodDescriptors.add(methodDescriptorIds[i]);
+            methodModifiers.add(methodModifierFlags[i]);
+        }
+        if (nameId >= classByNameId.size()) {
+            classByNameId.fill(Math.max(nameId + 1, symbolTable.size()), 0);
+        }
+        classByNameId.set(nameId, row + 1);
+        // the subtypes have to be computed again
+        firstSubTypes = null;
+        subTypes = null;
+        return row;
+    }
+
+    public int getClassCount() {
+        return classNames.size();
+    }
+
+    public int getMethodCount() {
+        return methodNames.size();
+    }
+
+    /**
+     * Get the row of the class with the given internal name, or -1.
+     */
+    public int findClass(final String internalName) {
+        final int nameId = symbolTable.find(internalName);
+        return nameId == -1 ? -1 : findClass(nameId);
+    }
+
+    /**
+     * Get the row of the class whose internal name has the given ID, or -1.
+     */
+    public int findClass(final int nameId) {
+        return nameId >= 0 && nameId < classByNameId.size() ? classByNameId.get(nameId) - 1 : -1;
+    }
+
+    //--- class columns
+
+    public int getClassNameId(final int c) {
+        return classNames.get(c);
+    }
+
+    public String getClassName(final int c) {
+        return symbolTable.get(classNames.get(c));
+    }
+
+    public int getClassModifiers(final int c) {
+        return classModifiers.get(c);
+    }
+
+    /**
+     * Get the location the class was read from, or null.
+     */
+    public String getLocation(final int c) {
+        final int locationId = classLocations.get(c);
+        return locationId == -1 ? null : symbolTable.get(locationId);
+    }
+
+    /**
+     * Get the name ID of the superclass, or -1 (for java/lang/Object).
+     */
+    public int getSuperClassNameId(final int c) {
+        return superClassNames.get(c);
+    }
+
+    /**
+     * Get the row of the superclass, or -1 if there is none or it has no row.
+     */
+    public int getSuperClass(final int c) {
+        return findClass(superClassNames.get(c));
+    }
+
+    public int getInterfaceCount(final int c) {
+        return interfaceCounts.get(c);
+    }
+
+    public int getInterfaceNameId(final int c, final int i) {
+        return interfaceNames.get(firstInterfaces.get(c) + i);
+    }
+
+    /**
+     * Get the row of the i-th interface, or -1 if it has no row.
+     */
+    public int getInterface(final int c, final int i) {
+        return findClass(getInterfaceNameId(c, i));
+    }
+
+    /**
+     * Get the number of classes with a row that directly extend or implement
+     * the given class.
+     */
+    public int getSubTypeCount(final int c) {
+        if (subTypes == null) {
+            computeSubTypes();
+        }
+        return firstSubTypes.get(c + 1) - firstSubTypes.get(c);
+    }
+
+    /**
+     * Get the row of the i-th direct subtype.
+     */
+    public int getSubType(final int c, final int i) {
+        if (subTypes == null) {
+            computeSubTypes();
+        }
+        return subTypes.get(firstSubTypes.get(c) + i);
+    }
+
+    public int getMethodCount(final int c) {
+        return methodCounts.get(c);
+    }
+
+    /**
+     * Get the row of the i-th method of the given class.
+     */
+    public int getMethod(final int c, final int i) {
+        return firstMethods.get(c) + i;
+    }
+
+    /**
+     * Get the row of the method with the given name and descriptor IDs
+     * declared in the given class, or -1.
+     */
+    public int findMethod(final int c, final int nameId, final int descriptorId) {
+        final int first = firstMethods.get(c);
+        final int end = first + methodCounts.get(c);
+        for (int m = first; m < end; m++) {
+            if (methodNames.get(m) == nameId && methodDescriptors.get(m) == descriptorId) {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    //--- method columns
+
+    public int getDeclaringClass(final int m) {
+        return methodClasses.get(m);
+    }
+
+    public int getMethodNameId(final int m) {
+        return methodNames.get(m);
+    }
+
+    public String getMethodName(final int m) {
+        return symbolTable.get(methodNames.get(m));
+    }
+
+    public int getMethodDescriptorId(final int m) {
+        return methodDescriptors.get(m);
+    }
+
+    public String getMethodDescriptor(final int m) {
+        return symbolTable.get(methodDescriptors.get(m));
+    }
+
+    public int getMethodModifiers(final int m) {
+        return methodModifiers.get(m);
+    }
+
+    //--- views
+
+    /**
+     * Get a new ClassHierarchy that shares this SymbolTable and creates the
+     * ClassType (with its Methods) of a class of this store when it is first
+     * asked for.
+     */
+    public ClassHierarchy newView() {
+        return newView(null);
+    }
+
+    /**
+     * Get a new view (see newView()) that resolves the classes not in this
+     * store with the given resolver (e.g. a SnapshotClassResolver for the
+     * JDK), or leaves them unresolved if it is null.
+     */
+    public ClassHierarchy newView(final ClassResolver fallback) {
+        final ClassHierarchy view = new ClassHierarchy(symbolTable);
+        view.setClassResolver(new ColumnarClassResolver(this, fallback));
+        return view;
+    }
+
+    /**
+     * Compute the direct subtypes of all classes into two columns, like a
+     * sparse matrix: count, then turn counts into start indices, then fill.
+     */
+    private synchronized void computeSubTypes() {
+        if (subTypes != null) {
+            return;
+        }
+        final int classCount = classNames.size();
+        final IntColumn first = new IntColumn(classCount + 1);
+        first.fill(classCount + 1, 0);
+        for (int c = 0; c < classCount; c++) {
+            final int superClass = getSuperClass(c);
+            if (superClass != -1) {
+                first.set(superClass + 1, first.get(superClass + 1) + 1);
+            }
+            for (int i = 0; i < getInterfaceCount(c); i++) {
+                final int interfa = getInterface(c, i);
+                if (interfa != -1) {
+                    first.set(interfa + 1, first.get(interfa + 1) + 1);
+                }
+            }
+        }
+        for (int c = 0; c < classCount; c++) {
+            first.set(c + 1, first.get(c + 1) + first.get(c));
+        }
+        final IntColumn edges = new IntColumn(first.get(classCount));
+        edges.fill(first.get(classCount), 0);
+        // next free index per class (on the heap only while computing)
+        final int[] next = new int[classCount];
+        for (int c = 0; c < classCount; c++) {
+            next[c] = first.get(c);
+        }
+        for (int c = 0; c < classCount; c++) {
+            final int superClass = getSuperClass(c);
+            if (superClass != -1) {
+                edges.set(next[superClass]++, c);
+            }
+            for (int i = 0; i < getInterfaceCount(c); i++) {
+                final int interfa = getInterface(c, i);
+                if (interfa != -1) {
+                    edges.set(next[interfa]++, c);
+                }
+            }
+        }
+        // subTypes last: readers check it
+        firstSubTypes = first;
+        subTypes = edges;
+    }
+
+}
@@ -0,0 +1,106 @@
+package asmtools.framework;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A directory tree of class files, e.g. the output directory of a compiler
+ * ("target/classes"), with the root of the tree corresponding to the default
+ * package.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class DirectoryClassSource implements ClassSource {
+
+    private final String location;
+    private final List<ClassEntry> classEntries;
+
+    public DirectoryClassSource(final String directoryName) throws IOException {
+        final File root = new File(directoryName);
+        if (!root.isDirectory()) {
+            throw new IOException(directoryName + " is not a directory");
+        }
+        this.location = directoryName;
+        final ArrayList<ClassEntry> entries = new ArrayList<ClassEntry>();
+        collect(root, "", entries);
+        this.classEntries = Collections.unmodifiableList(entries);
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public List<ClassEntry> getClassEntries() {
+        return classEntries;
+    }
+
+    private static void collect(final File directory, final String prefix, final List<ClassEntry> entries)
+            throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        for (final File file : files) {
+            final String name = prefix + file.getName();
+            if (file.isDirectory()) {
+                collect(file, name + "/", entries);
+            } else if (name.toLowerCase().endsWith(".class")) {
+                final long length = file.length();
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException(file + " is too large");
+                }
+                entries.add(new FileEntry(file, name, (int) length));
+            }
+        }
+    }
+
+
+    /**
+     * A class file in a directory tree.
+     */
+    private static final class FileEntry implements ClassEntry {
+
+        private final File file;
+        private final String name;
+        private final int size;
+
+        FileEntry(final File file, final String name, final int size) {
+            this.file = file;
+            this.name = name;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getCrc() {
+            return -1;
+        }
+
+        public byte[] read(final EntryReader reader) throws IOException {
+            final byte[] buffer = reader.getBuffer(size);
+            final RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                in.readFully(buffer, 0, size);
+            } finally {
+                in.close();
+            }
+            return buffer;
+        }
+
+        public String toString() {
+            return name;
+        }
+
+    }
+
+}
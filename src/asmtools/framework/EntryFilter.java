@@ -0,0 +1,93 @@
+package asmtools.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Selects entries by name with include and exclude globs, e.g. include
+ * "com/acme/**" and exclude "**&#47;*Test.class". An ArchiveScanner with a
+ * filter applies it to the names in the central directory (resp. the
+ * directory tree), so rejected entries are never read, inflated or parsed.
+ * <p/>
+ * The globs see the name of a class file as if it were at the root of its
+ * archive, without the BOOT-INF/classes/, WEB-INF/classes/ or
+ * META-INF/versions/N/ prefix (see ClasspathIndex), so "com/acme/**" also
+ * selects "BOOT-INF/classes/com/acme/Foo.class".
+ * <p/>
+ * In a glob, "**" matches any part of a name (including "/"), "*" and "?"
+ * match any characters resp. one character within a directory, and "**&#47;"
+ * also matches no directory at all. An entry is accepted if it matches some
+ * include glob (or there are none) and no exclude glob.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class EntryFilter {
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+
+    public EntryFilter() {
+        includes = new ArrayList<Pattern>();
+        excludes = new ArrayList<Pattern>();
+    }
+
+    public EntryFilter include(final String glob) {
+        includes.add(compile(glob));
+        return this;
+    }
+
+    public EntryFilter exclude(final String glob) {
+        excludes.add(compile(glob));
+        return this;
+    }
+
+    public boolean accept(final String entryName) {
+        final String name = entryName.endsWith(".class")
+                ? ClasspathIndex.getClassName(entryName) + ".class"
+                : entryName;
+        boolean included = includes.isEmpty();
+        for (int i = 0; i < includes.size() && !included; i++) {
+            included = includes.get(i).matcher(name).matches();
+        }
+        if (!included) {
+            return false;
+        }
+        for (final Pattern exclude : excludes) {
+            if (exclude.matcher(name).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Pattern compile(final String glob) {
+        final StringBuilder regex = new StringBuilder();
+        final int length = glob.length();
+        for (int i = 0; i < length; i++) {
+            final char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < length && glob.charAt(i + 1) == '*') {
+                    if (i + 2 < length && glob.charAt(i + 2) == '/') {
+                        // "**/": any number of directories, including none
+                        regex.append("(?:.*/)?");
+                        i += 2;
+                    } else {
+                        regex.append(".*");
+                        i++;
+                    }
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+}
@@ -0,0 +1,146 @@
+package asmtools.framework;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the uncompressed data of ClassEntries into a reusable byte array.
+ * Stored entries are copied straight out of the archive buffer, deflated
+ * entries are inflated in one go into an array that already has the final
+ * size, so there is no stream and no buffer growth involved. Class files in
+ * directories are read into the same array.
+ * <p/>
+ * An EntryReader is not thread-safe: use one per thread, and call close()
+ * when done to release the native memory held by its Inflater.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class EntryReader {
+
+    private final Inflater inflater;
+    private byte[] input;
+    private byte[] output;
+
+    public EntryReader() {
+        inflater = new Inflater(true);
+        input = new byte[8192];
+        output = new byte[8192];
+    }
+
+    /**
+     * Read the uncompressed data of the given entry. The data occupies the
+     * first entry.getSize() bytes of the returned array, which is only valid
+     * until the next call to read().
+     */
+    public byte[] read(final MappedArchive archive, final ArchiveEntry entry) throws IOException {
+        read(archive, entry, getBuffer(entry.getSize()));
+        return output;
+    }
+
+    /**
+     * Read the uncompressed data of the given entry into a new array of
+     * exactly entry.getSize() bytes.
+     */
+    public byte[] readCopy(final MappedArchive archive, final ArchiveEntry entry) throws IOException {
+        final byte[] copy = new byte[entry.getSize()];
+        read(archive, entry, copy);
+        return copy;
+    }
+
+    /**
+     * Get the reusable output buffer, with room for at least size bytes.
+     */
+    byte[] getBuffer(final int size) {
+        if (output.length < size) {
+            output = new byte[Math.max(size, output.length * 2)];
+        }
+        return output;
+    }
+
+    private void read(final MappedArchive archive, final ArchiveEntry entry, final byte[] destination)
+            throws IOException {
+        final int dataOffset = archive.getDataOffset(entry);
+        final int size = entry.getSize();
+        if (entry.isStored()) {
+            if (entry.getCompressedSize() != size) {
+                throw new IOException(archive.getName() + ": invalid size for stored entry " + entry.getName());
+            }
+            archive.copy(dataOffset, destination, size);
+            return;
+        }
+
+        if (entry.getMethod() != ArchiveEntry.DEFLATED) {
+            throw new IOException(archive.getName() + ": unsupported compression method "
+                    + entry.getMethod() + " for " + entry.getName());
+        }
+        final int compressedSize = entry.getCompressedSize();
+        // a "nowrap" Inflater may need one extra dummy byte of input
+        if (input.length < compressedSize + 1) {
+            input = new byte[Math.max(compressedSize + 1, input.length * 2)];
+        }
+        archive.copy(dataOffset, input, compressedSize);
+        input[compressedSize] = 0;
+        inflate(archive, entry, input, destination);
+    }
+
+    /**
+     * Copy the still compressed data of the given deflated entry into a new
+     * array, to be inflated later (maybe by another thread) with inflate().
+     */
+    byte[] readCompressed(final MappedArchive archive, final ArchiveEntry entry) throws IOException {
+        if (entry.getMethod() != ArchiveEntry.DEFLATED) {
+            throw new IOException(archive.getName() + ": unsupported compression method "
+                    + entry.getMethod() + " for " + entry.getName());
+        }
+        final int compressedSize = entry.getCompressedSize();
+        // including the extra dummy byte for the Inflater
+        final byte[] compressed = new byte[compressedSize + 1];
+        archive.copy(archive.getDataOffset(entry), compressed, compressedSize);
+        return compressed;
+    }
+
+    /**
+     * Inflate data returned by readCompressed(). Like read(), the result is
+     * only valid until the next call.
+     */
+    byte[] inflate(final MappedArchive archive, final ArchiveEntry entry, final byte[] compressed)
+            throws IOException {
+        inflate(archive, entry, compressed, getBuffer(entry.getSize()));
+        return output;
+    }
+
+    private void inflate(final MappedArchive archive,
+                         final ArchiveEntry entry,
+                         final byte[] compressed,
+                         final byte[] destination) throws IOException {
+        final int size = entry.getSize();
+        inflater.reset();
+        inflater.setInput(compressed, 0, entry.getCompressedSize() + 1);
+        try {
+            int inflated = 0;
+            while (inflated < size) {
+                final int n = inflater.inflate(destination, inflated, size - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != size) {
+                throw new IOException(archive.getName() + ": " + entry.getName()
+                        + " inflated to " + inflated + " bytes, expected " + size);
+            }
+            ScanStatistics.getInstance().entryInflated(size);
+        } catch (final DataFormatException ex) {
+            throw new IOException(archive.getName() + ": corrupt entry " + entry.getName() + " (" + ex.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Release the native resources of this reader.
+     */
+    public void close() {
+        inflater.end();
+    }
+
+}
@@ -0,0 +1,400 @@
+package asmtools.framework;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.List;
+
+/**
+ * A ClassVisitor that forwards each event to several ClassVisitors, so they
+ * can share a single ClassReader.accept() call. A member (method, field,
+ * annotation) is only forwarded to the visitors that want to see it; if none
+ * does, null is returned, so the ClassReader can skip it (in particular, it
+ * does not parse the code of a method nobody visits).
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class FanOutClassVisitor implements ClassVisitor {
+
+    private final ClassVisitor[] visitors;
+
+    public FanOutClassVisitor(final List<? extends ClassVisitor> visitors) {
+        this.visitors = visitors.toArray(new ClassVisitor[visitors.size()]);
+    }
+
+    /**
+     * Get a visitor forwarding to all the given visitors: the single visitor
+     * itself, if there is only one.
+     */
+    public static ClassVisitor of(final List<? extends ClassVisitor> visitors) {
+        return visitors.size() == 1 ? visitors.get(0) : new FanOutClassVisitor(visitors);
+    }
+
+    public void visit(final int version,
+                      final int access,
+                      final String name,
+                      final String signature,
+                      final String superName,
+                      final String[] interfaces) {
+        for (final ClassVisitor visitor : visitors) {
+            visitor.visit(version, access, name, signature, superName, interfaces);
+        }
+    }
+
+    public void visitSource(final String source, final String debug) {
+        for (final ClassVisitor visitor : visitors) {
+            visitor.visitSource(source, debug);
+        }
+    }
+
+    public void visitOuterClass(final String owner, final String name, final String desc) {
+        for (final ClassVisitor visitor : visitors) {
+            visitor.visitOuterClass(owner, name, desc);
+        }
+    }
+
+    public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+        final AnnotationVisitor[] results = new AnnotationVisitor[visitors.length];
+        for (int i = 0; i < visitors.length; i++) {
+            results[i] = visitors[i].visitAnnotation(desc, visible);
+        }
+        return FanOutAnnotationVisitor.of(results);
+    }
+
+    public void visitAttribute(final Attribute attribute) {
+        for (final ClassVisitor visitor : visitors) {
+            visitor.visitAttribute(attribute);
+        }
+    }
+
+    public void visitInnerClass(final String name, final String outerName, final String innerName, final int access) {
+        for (final ClassVisitor visitor : visitors) {
+            visitor.visitInnerClass(name, outerName, innerName, access);
+        }
+    }
+
+    public FieldVisitor visitField(final int access,
+                                   final String name,
+                                   final String desc,
+                                   final String signature,
+                                   final Object value) {
+        final FieldVisitor[] results = new FieldVisitor[visitors.length];
+        for (int i = 0; i < visitors.length; i++) {
+            results[i] = visitors[i].visitField(access, name, desc, signature, value);
+        }
+        return FanOutFieldVisitor.of(results);
+    }
+
+    public MethodVisitor visitMethod(final int access,
+                                     final String name,
+                                     final String desc,
+                                     final String signature,
+                                     final String[] exceptions) {
+        final MethodVisitor[] results = new MethodVisitor[visitors.length];
+        for (int i = 0; i < visitors.length; i++) {
+            results[i] = visitors[i].visitMethod(access, name, desc, signature, exceptions);
+        }
+        return FanOutMethodVisitor.of(results);
+    }
+
+    public void visitEnd() {
+        for (final ClassVisitor visitor : visitors) {
+            visitor.visitEnd();
+        }
+    }
+
+
+    /**
+     * Count the non-null elements of visitors and move them to the front.
+     */
+    private static int compact(final Object[] visitors) {
+        int count = 0;
+        for (int i = 0; i < visitors.length; i++) {
+            if (visitors[i] != null) {
+                visitors[count++] = visitors[i];
+            }
+        }
+        return count;
+    }
+
+
+    private static final class FanOutAnnotationVisitor implements AnnotationVisitor {
+
+        private final AnnotationVisitor[] visitors;
+
+        private FanOutAnnotationVisitor(final AnnotationVisitor[] visitors) {
+            this.visitors = visitors;
+        }
+
+        static AnnotationVisitor of(final AnnotationVisitor[] visitors) {
+            final int count = compact(visitors);
+            if (count <= 1) {
+                return count == 0 ? null : visitors[0];
+            }
+            final AnnotationVisitor[] nonNull = new AnnotationVisitor[count];
+            System.arraycopy(visitors, 0, nonNull, 0, count);
+            return new FanOutAnnotationVisitor(nonNull);
+        }
+
+        public void visit(final String name, final Object value) {
+            for (final AnnotationVisitor visitor : visitors) {
+                visitor.visit(name, value);
+            }
+        }
+
+        public void visitEnum(final String name, final String desc, final String value) {
+            for (final AnnotationVisitor visitor : visitors) {
+                visitor.visitEnum(name, desc, value);
+            }
+        }
+
+        public AnnotationVisitor visitAnnotation(final String name, final String desc) {
+            final AnnotationVisitor[] results = new AnnotationVisitor[visitors.length];
+            for (int i = 0; i < visitors.length; i++) {
+                results[i] = visitors[i].visitAnnotation(name, desc);
+            }
+            return of(results);
+        }
+
+        public AnnotationVisitor visitArray(final String name) {
+            final AnnotationVisitor[] results = new AnnotationVisitor[visitors.length];
+            for (int i = 0; i < visitors.length; i++) {
+                results[i] = visitors[i].visitArray(name);
+            }
+            return of(results);
+        }
+
+        public void visitEnd() {
+            for (final AnnotationVisitor visitor : visitors) {
+                visitor.visitEnd();
+            }
+        }
+
+    }
+
+
+    private static final class FanOutFieldVisitor implements FieldVisitor {
+
+        private final FieldVisitor[] visitors;
+
+        private FanOutFieldVisitor(final FieldVisitor[] visitors) {
+            this.visitors = visitors;
+        }
+
+        static FieldVisitor of(final FieldVisitor[] visitors) {
+            final int count = compact(visitors);
+            if (count <= 1) {
+                return count == 0 ? null : visitors[0];
+            }
+            final FieldVisitor[] nonNull = new FieldVisitor[count];
+            System.arraycopy(visitors, 0, nonNull, 0, count);
+            return new FanOutFieldVisitor(nonNull);
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            final AnnotationVisitor[] results = new AnnotationVisitor[visitors.length];
+            for (int i = 0; i < visitors.length; i++) {
+                results[i] = visitors[i].visitAnnotation(desc, visible);
+            }
+            return FanOutAnnotationVisitor.of(results);
+        }
+
+        public void visitAttribute(final Attribute attribute) {
+            for (final FieldVisitor visitor : visitors) {
+                visitor.visitAttribute(attribute);
+            }
+        }
+
+        public void visitEnd() {
+            for (final FieldVisitor visitor : visitors) {
+                visitor.visitEnd();
+            }
+        }
+
+    }
+
+
+    private static final class FanOutMethodVisitor implements MethodVisitor {
+
+        private final MethodVisitor[] visitors;
+
+        private FanOutMethodVisitor(final MethodVisitor[] visitors) {
+            this.visitors = visitors;
+        }
+
+        static MethodVisitor of(final MethodVisitor[] visitors) {
+            final int count = compact(visitors);
+            if (count <= 1) {
+                return count == 0 ? null : visitors[0];
+            }
+            final MethodVisitor[] nonNull = new MethodVisitor[count];
+            System.arraycopy(visitors, 0, nonNull, 0, count);
+            return new FanOutMethodVisitor(nonNull);
+        }
+
+        public AnnotationVisitor visitAnnotationDefault() {
+            final AnnotationVisitor[] results = new AnnotationVisitor[visitors.length];
+            for (int i = 0; i < visitors.length; i++) {
+                results[i] = visitors[i].visitAnnotationDefault();
+            }
+            return FanOutAnnotationVisitor.of(results);
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            final AnnotationVisitor[] results = new AnnotationVisitor[visitors.length];
+            for (int i = 0; i < visitors.length; i++) {
+                results[i] = visitors[i].visitAnnotation(desc, visible);
+            }
+            return FanOutAnnotationVisitor.of(results);
+        }
+
+        public AnnotationVisitor visitParameterAnnotation(final int parameter, final String desc, final boolean visible) {
+            final AnnotationVisitor[] results = new AnnotationVisitor[visitors.length];
+            for (int i = 0; i < visitors.length; i++) {
+                results[i] = visitors[i].visitParameterAnnotation(parameter, desc, visible);
+            }
+            return FanOutAnnotationVisitor.of(results);
+        }
+
+        public void visitAttribute(final Attribute attribute) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitAttribute(attribute);
+            }
+        }
+
+        public void visitCode() {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitCode();
+            }
+        }
+
+        public void visitFrame(final int type,
+                               final int nLocal,
+                               final Object[] local,
+                               final int nStack,
+                               final Object[] stack) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitFrame(type, nLocal, local, nStack, stack);
+            }
+        }
+
+        public void visitInsn(final int opcode) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitInsn(opcode);
+            }
+        }
+
+        public void visitIntInsn(final int opcode, final int operand) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitIntInsn(opcode, operand);
+            }
+        }
+
+        public void visitVarInsn(final int opcode, final int var) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitVarInsn(opcode, var);
+            }
+        }
+
+        public void visitTypeInsn(final int opcode, final String type) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitTypeInsn(opcode, type);
+            }
+        }
+
+        public void visitFieldInsn(final int opcode, final String owner, final String name, final String desc) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitFieldInsn(opcode, owner, name, desc);
+            }
+        }
+
+        public void visitMethodInsn(final int opcode, final String owner, final String name, final String desc) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitMethodInsn(opcode, owner, name, desc);
+            }
+        }
+
+        public void visitJumpInsn(final int opcode, final Label label) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitJumpInsn(opcode, label);
+            }
+        }
+
+        public void visitLabel(final Label label) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitLabel(label);
+            }
+        }
+
+        public void visitLdcInsn(final Object cst) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitLdcInsn(cst);
+            }
+        }
+
+        public void visitIincInsn(final int var, final int increment) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitIincInsn(var, increment);
+            }
+        }
+
+        public void visitTableSwitchInsn(final int min, final int max, final Label dflt, final Label[] labels) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitTableSwitchInsn(min, max, dflt, labels);
+            }
+        }
+
+        public void visitLookupSwitchInsn(final Label dflt, final int[] keys, final Label[] labels) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitLookupSwitchInsn(dflt, keys, labels);
+            }
+        }
+
+        public void visitMultiANewArrayInsn(final String desc, final int dims) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitMultiANewArrayInsn(desc, dims);
+            }
+        }
+
+        public void visitTryCatchBlock(final Label start, final Label end, final Label handler, final String type) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitTryCatchBlock(start, end, handler, type);
+            }
+        }
+
+        public void visitLocalVariable(final String name,
+                                       final String desc,
+                                       final String signature,
+                                       final Label start,
+                                       final Label end,
+                                       final int index) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitLocalVariable(name, desc, signature, start, end, index);
+            }
+        }
+
+        public void visitLineNumber(final int line, final Label start) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitLineNumber(line, start);
+            }
+        }
+
+        public void visitMaxs(final int maxStack, final int maxLocals) {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitMaxs(maxStack, maxLocals);
+            }
+        }
+
+        public void visitEnd() {
+            for (final MethodVisitor visitor : visitors) {
+                visitor.visitEnd();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,131 @@
+package asmtools.framework;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * A ClassVisitorAnalyzer that passes only the classes and methods accepted
+ * by a MemberFilter on to another analyzer. Rejected methods are not visited
+ * at all, so (unless another analyzer wants them) the ClassReader does not
+ * parse their code. A rejected class is not visited at all either.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class FilteredAnalyzer implements ClassVisitorAnalyzer {
+
+    private final ClassVisitorAnalyzer analyzer;
+    private final MemberFilter filter;
+
+    public FilteredAnalyzer(final ClassVisitorAnalyzer analyzer, final MemberFilter filter) {
+        this.analyzer = analyzer;
+        this.filter = filter;
+    }
+
+    public ClassVisitor getClassVisitor(final String location) {
+        final ClassVisitor visitor = analyzer.getClassVisitor(location);
+        return visitor == null ? null : filter(visitor, filter);
+    }
+
+    public boolean isThreadSafe() {
+        return analyzer.isThreadSafe();
+    }
+
+    public int getParsingOptions() {
+        return analyzer.getParsingOptions();
+    }
+
+    /**
+     * Get a visitor that passes only the classes and methods accepted by
+     * filter on to visitor.
+     */
+    public static ClassVisitor filter(final ClassVisitor visitor, final MemberFilter filter) {
+        return new FilteringClassVisitor(visitor, filter);
+    }
+
+
+    /**
+     * Forwards the events of accepted classes, except those of rejected
+     * methods.
+     */
+    private static final class FilteringClassVisitor implements ClassVisitor {
+
+        private final ClassVisitor visitor;
+        private final MemberFilter filter;
+        private String className;
+
+        FilteringClassVisitor(final ClassVisitor visitor, final MemberFilter filter) {
+            this.visitor = visitor;
+            this.filter = filter;
+        }
+
+        public void visit(final int version,
+                          final int access,
+                          final String name,
+                          final String signature,
+                          final String superName,
+                          final String[] interfaces) {
+            if (filter.acceptClass(name)) {
+                className = name;
+                visitor.visit(version, access, name, signature, superName, interfaces);
+            }
+        }
+
+        public void visitSource(final String source, final String debug) {
+            if (className != null) {
+                visitor.visitSource(source, debug);
+            }
+        }
+
+        public void visitOuterClass(final String owner, final String name, final String desc) {
+            if (className != null) {
+                visitor.visitOuterClass(owner, name, desc);
+            }
+        }
+
+        public AnnotationVisitor visitAnnotation(final String desc, final boolean visible) {
+            return className == null ? null : visitor.visitAnnotation(desc, visible);
+        }
+
+        public void visitAttribute(final Attribute attr) {
+            if (className != null) {
+                visitor.visitAttribute(attr);
+            }
+        }
+
+        public void visitInnerClass(final String name, final String outerName, final String innerName, final int access) {
+            if (className != null) {
+                visitor.visitInnerClass(name, outerName, innerName, access);
+            }
+        }
+
+        public FieldVisitor visitField(final int access,
+                                       final String name,
+                                       final String desc,
+                                       final String signature,
+                                       final Object value) {
+            return className == null ? null : visitor.visitField(access, name, desc, signature, value);
+        }
+
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String desc,
+                                         final String signature,
+                                         final String[] exceptions) {
+            if (className == null || !filter.acceptMethod(className, name, desc)) {
+                return null;
+            }
+            return visitor.visitMethod(access, name, desc, signature, exceptions);
+        }
+
+        public void visitEnd() {
+            if (className != null) {
+                visitor.visitEnd();
+            }
+        }
+
+    }
+
+}
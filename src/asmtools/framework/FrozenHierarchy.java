@@ -0,0 +1,387 @@
+package asmtools.framework;
+
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable, compact copy of a complete ClassHierarchy (with its call
+ * sites), for querying it many times (see ClassHierarchy.freeze()).
+ * <p/>
+ * Classes are numbered 0..getClassCount()-1 in the order they were created,
+ * methods and call sites likewise in the order of their classes resp.
+ * methods. Everything is stored in trimmed arrays of ints: the interfaces,
+ * (direct) subtypes and methods of a class, the call sites of a method and
+ * the possible target classes of a call site each are a contiguous range
+ * of one array, like the rows of a sparse matrix. Names are IDs in the
+ * SymbolTable of the hierarchy, which is thread-safe and keeps its IDs.
+ * <p/>
+ * All fields are final and the arrays are never written after the
+ * constructor, so a FrozenHierarchy can be handed to any number of threads
+ * without synchronization. It does not see changes to the hierarchy after
+ * it was frozen.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class FrozenHierarchy {
+
+    private final SymbolTable symbolTable;
+
+    // name ID -> class, or -1
+    private final int[] classByNameId;
+    // class columns
+    private final int[] classNameIds;
+    private final int[] classModifiers;
+    private final boolean[] classResolved;
+    // the superclass, or -1
+    private final int[] superClasses;
+    // class -> first index in interfaces resp. subTypes resp. first method, classCount + 1 entries
+    private final int[] firstInterfaces;
+    private final int[] interfaces;
+    private final int[] firstSubTypes;
+    private final int[] subTypes;
+    private final int[] firstMethods;
+    // method columns
+    private final int[] methodClasses;
+    private final int[] methodNameIds;
+    private final int[] methodDescriptorIds;
+    private final int[] methodModifiers;
+    // method -> first call site, methodCount + 1 entries
+    private final int[] firstCallSites;
+    // call site columns
+    private final int[] callSiteOpcodes;
+    private final int[] callSiteOwnerNameIds;
+    private final int[] callSiteNameIds;
+    private final int[] callSiteDescriptorIds;
+    // call site -> first index in targets, callSiteCount + 1 entries
+    private final int[] firstTargets;
+    private final int[] targets;
+
+    /**
+     * Copy the given classes of the hierarchy, which must not change while
+     * they are copied.
+     */
+    FrozenHierarchy(final ClassHierarchy hierarchy, final List<ClassType> classTypes) {
+        symbolTable = hierarchy.getSymbolTable();
+        final int classCount = classTypes.size();
+        int maxNameId = -1;
+        int interfaceCount = 0;
+        int methodCount = 0;
+        for (final ClassType classType : classTypes) {
+            maxNameId = Math.max(maxNameId, classType.getNameId());
+            interfaceCount += classType.getInterfaces().size();
+            methodCount += classType.getMethods().size();
+        }
+        classByNameId = new int[maxNameId + 1];
+        Arrays.fill(classByNameId, -1);
+        for (int c = 0; c < classCount; c++) {
+            classByNameId[classTypes.get(c).getNameId()] = c;
+        }
+
+        // classes with their interfaces and methods, and the methods
+        classNameIds = new int[classCount];
+        classModifiers = new int[classCount];
+        classResolved = new boolean[classCount];
+        superClasses = new int[classCount];
+        firstInterfaces = new int[classCount + 1];
+        interfaces = new int[interfaceCount];
+        firstMethods = new int[classCount + 1];
+        methodClasses = new int[methodCount];
+        methodNameIds = new int[methodCount];
+        methodDescriptorIds = new int[methodCount];
+        methodModifiers = new int[methodCount];
+        final List<Method> methods = new ArrayList<Method>(methodCount);
+        int i = 0;
+        for (int c = 0; c < classCount; c++) {
+            final ClassType classType = classTypes.get(c);
+            classNameIds[c] = classType.getNameId();
+            classModifiers[c] = classType.getModifiers();
+            classResolved[c] = classType.isResolved();
+            superClasses[c] = classType.getSuperClass() == null
+                    ? -1 : findClass(classType.getSuperClass().getNameId());
+            firstInterfaces[c] = i;
+            for (final ClassType interfa : classType.getInterfaces()) {
+                interfaces[i++] = findClass(interfa.getNameId());
+            }
+            firstMethods[c] = methods.size();
+            for (final Method method : classType.getMethods()) {
+                final int m = methods.size();
+                methodClasses[m] = c;
+                methodNameIds[m] = method.getNameId();
+                methodDescriptorIds[m] = method.getDescriptorId();
+                methodModifiers[m] = method.getModifiers();
+                methods.add(method);
+            }
+        }
+        firstInterfaces[classCount] = i;
+        firstMethods[classCount] = methods.size();
+
+        // direct subtypes: count, then turn counts into start indices, then fill
+        firstSubTypes = new int[classCount + 1];
+        for (int c = 0; c < classCount; c++) {
+            if (superClasses[c] != -1) {
+                firstSubTypes[superClasses[c] + 1]++;
+            }
+            for (int j = firstInterfaces[c]; j < firstInterfaces[c + 1]; j++) {
+                if (interfaces[j] != -1) {
+                    firstSubTypes[interfaces[j] + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < classCount; c++) {
+            firstSubTypes[c + 1] += firstSubTypes[c];
+        }
+        subTypes = new int[firstSubTypes[classCount]];
+        final int[] next = Arrays.copyOf(firstSubTypes, classCount);
+        for (int c = 0; c < classCount; c++) {
+            if (superClasses[c] != -1) {
+                subTypes[next[superClasses[c]]++] = c;
+            }
+            for (int j = firstInterfaces[c]; j < firstInterfaces[c + 1]; j++) {
+                if (interfaces[j] != -1) {
+                    subTypes[next[interfaces[j]]++] = c;
+                }
+            }
+        }
+
+        // call sites with their targets
+        int callSiteCount = 0;
+        int targetCount = 0;
+        for (final Method method : methods) {
+            for (final CallSite callSite : method.getCallSites()) {
+                callSiteCount++;
+                targetCount += callSite.getPossibleTargetClasses().size();
+            }
+        }
+        firstCallSites = new int[methodCount + 1];
+        callSiteOpcodes = new int[callSiteCount];
+        callSiteOwnerNameIds = new int[callSiteCount];
+        callSiteNameIds = new int[callSiteCount];
+        callSiteDescriptorIds = new int[callSiteCount];
+        firstTargets = new int[callSiteCount + 1];
+        final int[] targets = new int[targetCount];
+        int s = 0;
+        int t = 0;
+        for (int m = 0; m < methodCount; m++) {
+            firstCallSites[m] = s;
+            for (final CallSite callSite : methods.get(m).getCallSites()) {
+                callSiteOpcodes[s] = callSite.getOpcode();
+                callSiteOwnerNameIds[s] = callSite.getDeclaredTargetClassNameId();
+                callSiteNameIds[s] = callSite.getTargetMethodNameId();
+                callSiteDescriptorIds[s] = callSite.getTargetMethodDescriptorId();
+                firstTargets[s] = t;
+                for (final ClassType target : callSite.getPossibleTargetClasses()) {
+                    final int targetClass = findClass(target.getNameId());
+                    // (a target created after the classes were listed is left out)
+                    if (targetClass != -1) {
+                        targets[t++] = targetClass;
+                    }
+                }
+                s++;
+            }
+        }
+        firstCallSites[methodCount] = s;
+        firstTargets[callSiteCount] = t;
+        this.targets = t == targetCount ? targets : Arrays.copyOf(targets, t);
+    }
+
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    public int getClassCount() {
+        return classNameIds.length;
+    }
+
+    public int getMethodCount() {
+        return methodNameIds.length;
+    }
+
+    public int getCallSiteCount() {
+        return callSiteOpcodes.length;
+    }
+
+    /**
+     * Get the class with the given internal name, or -1.
+     */
+    public int findClass(final String internalName) {
+        final int nameId = symbolTable.find(internalName);
+        return nameId == -1 ? -1 : findClass(nameId);
+    }
+
+    /**
+     * Get the class whose internal name has the given ID, or -1.
+     */
+    public int findClass(final int nameId) {
+        return nameId >= 0 && nameId < classByNameId.length ? classByNameId[nameId] : -1;
+    }
+
+    //--- classes
+
+    public int getClassNameId(final int c) {
+        return classNameIds[c];
+    }
+
+    public String getClassName(final int c) {
+        return symbolTable.get(classNameIds[c]);
+    }
+
+    public int getClassModifiers(final int c) {
+        return classModifiers[c];
+    }
+
+    /**
+     * Was the class read in (and not only referenced)?
+     */
+    public boolean isResolved(final int c) {
+        return classResolved[c];
+    }
+
+    public boolean isInterface(final int c) {
+        return (classModifiers[c] & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+    public boolean isAbstract(final int c) {
+        return (classModifiers[c] & Opcodes.ACC_ABSTRACT) != 0;
+    }
+
+    public boolean isFinal(final int c) {
+        return (classModifiers[c] & Opcodes.ACC_FINAL) != 0;
+    }
+
+    /**
+     * Get the superclass, or -1.
+     */
+    public int getSuperClass(final int c) {
+        return superClasses[c];
+    }
+
+    public int getInterfaceCount(final int c) {
+        return firstInterfaces[c + 1] - firstInterfaces[c];
+    }
+
+    public int getInterface(final int c, final int i) {
+        return interfaces[firstInterfaces[c] + i];
+    }
+
+    /**
+     * Get the number of classes that directly extend or implement the given
+     * class.
+     */
+    public int getSubTypeCount(final int c) {
+        return firstSubTypes[c + 1] - firstSubTypes[c];
+    }
+
+    public int getSubType(final int c, final int i) {
+        return subTypes[firstSubTypes[c] + i];
+    }
+
+    public int getMethodCount(final int c) {
+        return firstMethods[c + 1] - firstMethods[c];
+    }
+
+    /**
+     * Get the i-th method declared in the given class.
+     */
+    public int getMethod(final int c, final int i) {
+        return firstMethods[c] + i;
+    }
+
+    /**
+     * Get the method with the given name and descriptor IDs declared in the
+     * given class, or -1.
+     */
+    public int findMethod(final int c, final int nameId, final int descriptorId) {
+        for (int m = firstMethods[c]; m < firstMethods[c + 1]; m++) {
+            if (methodNameIds[m] == nameId && methodDescriptorIds[m] == descriptorId) {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    //--- methods
+
+    public int getDeclaringClass(final int m) {
+        return methodClasses[m];
+    }
+
+    public int getMethodNameId(final int m) {
+        return methodNameIds[m];
+    }
+
+    public String getMethodName(final int m) {
+        return symbolTable.get(methodNameIds[m]);
+    }
+
+    public int getMethodDescriptorId(final int m) {
+        return methodDescriptorIds[m];
+    }
+
+    public String getMethodDescriptor(final int m) {
+        return symbolTable.get(methodDescriptorIds[m]);
+    }
+
+    public int getMethodModifiers(final int m) {
+        return methodModifiers[m];
+    }
+
+    public int getCallSiteCount(final int m) {
+        return firstCallSites[m + 1] - firstCallSites[m];
+    }
+
+    /**
+     * Get the i-th call site in the given method.
+     */
+    public int getCallSite(final int m, final int i) {
+        return firstCallSites[m] + i;
+    }
+
+    //--- call sites
+
+    public int getOpcode(final int s) {
+        return callSiteOpcodes[s];
+    }
+
+    public int getDeclaredTargetClassNameId(final int s) {
+        return callSiteOwnerNameIds[s];
+    }
+
+    public String getDeclaredTargetClassName(final int s) {
+        return symbolTable.get(callSiteOwnerNameIds[s]);
+    }
+
+    /**
+     * Get the declared target class, or -1 if it is not in the hierarchy.
+     */
+    public int getDeclaredTargetClass(final int s) {
+        return findClass(callSiteOwnerNameIds[s]);
+    }
+
+    public int getTargetMethodNameId(final int s) {
+        return callSiteNameIds[s];
+    }
+
+    public String getTargetMethodName(final int s) {
+        return symbolTable.get(callSiteNameIds[s]);
+    }
+
+    public int getTargetMethodDescriptorId(final int s) {
+        return callSiteDescriptorIds[s];
+    }
+
+    public String getTargetMethodDescriptor(final int s) {
+        return symbolTable.get(callSiteDescriptorIds[s]);
+    }
+
+    public int getPossibleTargetClassCount(final int s) {
+        return firstTargets[s + 1] - firstTargets[s];
+    }
+
+    public int getPossibleTargetClass(final int s, final int i) {
+        return targets[firstTargets[s] + i];
+    }
+
+}
@@ -0,0 +1,589 @@
+package asmtools.framework;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A compact binary snapshot of a ClassHierarchy (classes, methods and call
+ * sites with their possible targets). A snapshot is written sequentially by
+ * write() and opened by open() with a memory map: queries read the records
+ * they need straight from the map, nothing is deserialized up front.
+ * <p/>
+ * Classes, methods and call sites are identified by their index in the
+ * snapshot. Classes are sorted by name, so findClass() is a binary search.
+ * <p/>
+ * File layout (all numbers are big-endian ints):
+ * <pre>
+ * header:     MAGIC VERSION stringCount classCount methodCount callSiteCount indexCount
+ * strings:    (stringCount + 1) offsets into the UTF-8 bytes that follow the index section
+ * classes:    classCount records of CLASS_RECORD ints
+ * methods:    methodCount records of METHOD_RECORD ints
+ * callSites:  callSiteCount records of CALL_SITE_RECORD ints
+ * index:      indexCount class indices (interfaces, subtypes and call targets)
+ * bytes:      the UTF-8 encoded strings
+ * </pre>
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class HierarchySnapshot {
+
+    private static final int MAGIC = 0x41534d48; // "ASMH"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+
+    // class record: name, modifiers, resolved, location, superClass,
+    // firstInterface, interfaceCount, firstSubType, subTypeCount, firstMethod, methodCount
+    private static final int CLASS_RECORD = 11;
+    // method record: declaringClass, name, descriptor, modifiers, firstCallSite, callSiteCount
+    private static final int METHOD_RECORD = 6;
+    // call site record: opcode, declaredTargetClassName, targetMethodName, targetMethodDescriptor,
+    // firstTarget, targetCount
+    private static final int CALL_SITE_RECORD = 6;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final int classCount;
+    private final int methodCount;
+    private final int callSiteCount;
+    private final int stringsOffset;
+    private final int classesOffset;
+    private final int methodsOffset;
+    private final int callSitesOffset;
+    private final int indexOffset;
+    private final int bytesOffset;
+    private final String[] strings;
+
+    private HierarchySnapshot(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a hierarchy snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported hierarchy snapshot version " + buffer.getInt(4));
+        }
+        stringCount = buffer.getInt(8);
+        classCount = buffer.getInt(12);
+        methodCount = buffer.getInt(16);
+        callSiteCount = buffer.getInt(20);
+        final int indexCount = buffer.getInt(24);
+        stringsOffset = HEADER_SIZE;
+        classesOffset = stringsOffset + 4 * (stringCount + 1);
+        methodsOffset = classesOffset + 4 * CLASS_RECORD * classCount;
+        callSitesOffset = methodsOffset + 4 * METHOD_RECORD * methodCount;
+        indexOffset = callSitesOffset + 4 * CALL_SITE_RECORD * callSiteCount;
+        bytesOffset = indexOffset + 4 * indexCount;
+        if (bytesOffset > buffer.limit() || bytesOffset + buffer.getInt(stringsOffset + 4 * stringCount) > buffer.limit()) {
+            throw new IOException("Truncated hierarchy snapshot");
+        }
+        strings = new String[stringCount];
+    }
+
+    /**
+     * Map the snapshot with the given file name into memory.
+     */
+    public static HierarchySnapshot open(final String fileName) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(fileName + " is too large to be mapped");
+            }
+            return new HierarchySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Read a snapshot from the given buffer (e.g. one written by write()).
+     */
+    public static HierarchySnapshot wrap(final ByteBuffer buffer) throws IOException {
+        return new HierarchySnapshot(buffer.slice());
+    }
+
+    //--- classes
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Get the index of the class with the given internal name, or -1 if the
+     * snapshot does not contain such a class.
+     */
+    public int findClass(final String internalName) {
+        final byte[] key = internalName.getBytes(UTF8);
+        int low = 0;
+        int high = classCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compareString(classInt(middle, 0), key);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public String getClassName(final int classIndex) {
+        return getString(classInt(classIndex, 0));
+    }
+
+    public int getClassModifiers(final int classIndex) {
+        return classInt(classIndex, 1);
+    }
+
+    public boolean isResolved(final int classIndex) {
+        return classInt(classIndex, 2) != 0;
+    }
+
+    /**
+     * Get the location the class was loaded from, or null.
+     */
+    public String getLocation(final int classIndex) {
+        return getString(classInt(classIndex, 3));
+    }
+
+    /**
+     * Get the index of the super class, or -1 if there is none.
+     */
+    public int getSuperClass(final int classIndex) {
+        return classInt(classIndex, 4);
+    }
+
+    public int getInterfaceCount(final int classIndex) {
+        return classInt(classIndex, 6);
+    }
+
+    public int getInterface(final int classIndex, final int i) {
+        return indexAt(classInt(classIndex, 5), classInt(classIndex, 6), i);
+    }
+
+    public int getSubTypeCount(final int classIndex) {
+        return classInt(classIndex, 8);
+    }
+
+    public int getSubType(final int classIndex, final int i) {
+        return indexAt(classInt(classIndex, 7), classInt(classIndex, 8), i);
+    }
+
+    public int getMethodCount(final int classIndex) {
+        return classInt(classIndex, 10);
+    }
+
+    /**
+     * Get the index of the i-th method declared by the given class.
+     */
+    public int getMethod(final int classIndex, final int i) {
+        if (i < 0 || i >= classInt(classIndex, 10)) {
+            throw new IndexOutOfBoundsException("Method " + i + " of class " + classIndex);
+        }
+        return classInt(classIndex, 9) + i;
+    }
+
+    /**
+     * Get the index of the method with the given name and descriptor declared
+     * by the given class, or -1.
+     */
+    public int findMethod(final int classIndex, final String name, final String descriptor) {
+        final byte[] nameKey = name.getBytes(UTF8);
+        final byte[] descriptorKey = descriptor.getBytes(UTF8);
+        final int first = classInt(classIndex, 9);
+        final int end = first + classInt(classIndex, 10);
+        for (int method = first; method < end; method++) {
+            if (compareString(methodInt(method, 1), nameKey) == 0
+                    && compareString(methodInt(method, 2), descriptorKey) == 0) {
+                return method;
+            }
+        }
+        return -1;
+    }
+
+    //--- methods
+
+    public int getMethodCount() {
+        return methodCount;
+    }
+
+    public int getDeclaringClass(final int methodIndex) {
+        return methodInt(methodIndex, 0);
+    }
+
+    public String getMethodName(final int methodIndex) {
+        return getString(methodInt(methodIndex, 1));
+    }
+
+    public String getMethodDescriptor(final int methodIndex) {
+        return getString(methodInt(methodIndex, 2));
+    }
+
+    public int getMethodModifiers(final int methodIndex) {
+        return methodInt(methodIndex, 3);
+    }
+
+    public int getCallSiteCount(final int methodIndex) {
+        return methodInt(methodIndex, 5);
+    }
+
+    /**
+     * Get the index of the i-th call site in the given method.
+     */
+    public int getCallSite(final int methodIndex, final int i) {
+        if (i < 0 || i >= methodInt(methodIndex, 5)) {
+            throw new IndexOutOfBoundsException("Call site " + i + " of method " + methodIndex);
+        }
+        return methodInt(methodIndex, 4) + i;
+    }
+
+    //--- call sites
+
+    public int getCallSiteCount() {
+        return callSiteCount;
+    }
+
+    public int getOpcode(final int callSiteIndex) {
+        return callSiteInt(callSiteIndex, 0);
+    }
+
+    public String getDeclaredTargetClassName(final int callSiteIndex) {
+        return getString(callSiteInt(callSiteIndex, 1));
+    }
+
+    public String getTargetMethodName(final int callSiteIndex) {
+        return getString(callSiteInt(callSiteIndex, 2));
+    }
+
+    public String getTargetMethodDescriptor(final int callSiteIndex) {
+        return getString(callSiteInt(callSiteIndex, 3));
+    }
+
+    public int getPossibleTargetClassCount(final int callSiteIndex) {
+        return callSiteInt(callSiteIndex, 5);
+    }
+
+    public int getPossibleTargetClass(final int callSiteIndex, final int i) {
+        return indexAt(callSiteInt(callSiteIndex, 4), callSiteInt(callSiteIndex, 5), i);
+    }
+
+    //--- conversion
+
+    /**
+     * Build a complete ClassHierarchy from this snapshot.
+     */
+    public ClassHierarchy toClassHierarchy() throws TypeInconsistencyException {
+        final ClassHierarchy hierarchy = new ClassHierarchy();
+        final ClassType[] classTypes = new ClassType[classCount];
+        for (int c = 0; c < classCount; c++) {
+            classTypes[c] = hierarchy.getOrCreateClass(getClassName(c));
+        }
+        for (int c = 0; c < classCount; c++) {
+            final ClassType classType = classTypes[c];
+            classType.setModifiers(getClassModifiers(c));
+            classType.setLocation(getLocation(c));
+            final int superClass = getSuperClass(c);
+            if (superClass >= 0) {
+                classType.setSuperClass(classTypes[superClass]);
+            }
+            for (int i = 0; i < getInterfaceCount(c); i++) {
+                classType.addInterface(classTypes[getInterface(c, i)]);
+            }
+            for (int i = 0; i < getMethodCount(c); i++) {
+                final int m = getMethod(c, i);
+                final Method method = new Method(classType,
+                        getMethodName(m), getMethodDescriptor(m), getMethodModifiers(m));
+                for (int j = 0; j < getCallSiteCount(m); j++) {
+                    final int s = getCallSite(m, j);
+                    final CallSite callSite = new CallSite(method, getOpcode(s), getDeclaredTargetClassName(s),
+                            getTargetMethodName(s), getTargetMethodDescriptor(s));
+                    final int targetCount = getPossibleTargetClassCount(s);
+                    if (targetCount > 0) {
+                        final List<ClassType> targets = new ArrayList<ClassType>(targetCount);
+                        for (int k = 0; k < targetCount; k++) {
+                            targets.add(classTypes[getPossibleTargetClass(s, k)]);
+                        }
+                        // shared with the call sites that have the same targets
+                        callSite.setPossibleTargetClasses(hierarchy.getTargetSet(targets));
+                    }
+                    method.addCallSite(callSite);
+                }
+                classType.addMethod(method);
+            }
+            if (isResolved(c)) {
+                classType.setResolved();
+            }
+        }
+        return hierarchy;
+    }
+
+    //--- record access
+
+    private int classInt(final int classIndex, final int field) {
+        if (classIndex < 0 || classIndex >= classCount) {
+            throw new IndexOutOfBoundsException("Class " + classIndex);
+        }
+        return buffer.getInt(classesOffset + 4 * (CLASS_RECORD * classIndex + field));
+    }
+
+    private int methodInt(final int methodIndex, final int field) {
+        if (methodIndex < 0 || methodIndex >= methodCount) {
+            throw new IndexOutOfBoundsException("Method " + methodIndex);
+        }
+        return buffer.getInt(methodsOffset + 4 * (METHOD_RECORD * methodIndex + field));
+    }
+
+    private int callSiteInt(final int callSiteIndex, final int field) {
+        if (callSiteIndex < 0 || callSiteIndex >= callSiteCount) {
+            throw new IndexOutOfBoundsException("Call site " + callSiteIndex);
+        }
+        return buffer.getInt(callSitesOffset + 4 * (CALL_SITE_RECORD * callSiteIndex + field));
+    }
+
+    private int indexAt(final int first, final int count, final int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException(i + " of " + count);
+        }
+        return buffer.getInt(indexOffset + 4 * (first + i));
+    }
+
+    private String getString(final int stringIndex) {
+        if (stringIndex < 0) {
+            return null;
+        }
+        String string = strings[stringIndex];
+        if (string == null) {
+            final int start = buffer.getInt(stringsOffset + 4 * stringIndex);
+            final int end = buffer.getInt(stringsOffset + 4 * (stringIndex + 1));
+            final byte[] bytes = new byte[end - start];
+            final ByteBuffer source = buffer.duplicate();
+            source.position(bytesOffset + start);
+            source.get(bytes);
+            string = new String(bytes, UTF8);
+            // racy but benign: every thread decodes the same string
+            strings[stringIndex] = string;
+        }
+        return string;
+    }
+
+    /**
+     * Compare the UTF-8 bytes of the given string with key, as unsigned bytes.
+     */
+    private int compareString(final int stringIndex, final byte[] key) {
+        final int start = bytesOffset + buffer.getInt(stringsOffset + 4 * stringIndex);
+        final int length = bytesOffset + buffer.getInt(stringsOffset + 4 * (stringIndex + 1)) - start;
+        final int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            final int difference = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    //--- writing
+
+    /**
+     * Write a snapshot of the given hierarchy to a file.
+     */
+    public static void write(final ClassHierarchy hierarchy, final String fileName) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        try {
+            write(hierarchy, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write a snapshot of the given hierarchy to a stream.
+     */
+    public static void write(final ClassHierarchy hierarchy, final DataOutputStream out) throws IOException {
+        // number the classes in the order of their UTF-8 encoded names
+        final ArrayList<ClassType> classTypes = new ArrayList<ClassType>();
+        for (final Type type : hierarchy.getTypes()) {
+            if (type instanceof ClassType) {
+                classTypes.add((ClassType) type);
+            }
+        }
+        final ClassType[] classes = classTypes.toArray(new ClassType[classTypes.size()]);
+        final byte[][] names = new byte[classes.length][];
+        final Integer[] order = new Integer[classes.length];
+        for (int c = 0; c < classes.length; c++) {
+            names[c] = classes[c].getInternalName().getBytes(UTF8);
+            order[c] = c;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(final Integer a, final Integer b) {
+                return compareBytes(names[a], names[b]);
+            }
+        });
+        final IdentityHashMap<ClassType, Integer> classIndices = new IdentityHashMap<ClassType, Integer>();
+        final ClassType[] sorted = new ClassType[classes.length];
+        for (int c = 0; c < classes.length; c++) {
+            sorted[c] = classes[order[c]];
+            classIndices.put(sorted[c], c);
+        }
+
+        // lay out all records
+        final StringPool strings = new StringPool();
+        final IntArray classRecords = new IntArray();
+        final IntArray methodRecords = new IntArray();
+        final IntArray callSiteRecords = new IntArray();
+        final IntArray index = new IntArray();
+        for (final ClassType classType : sorted) {
+            final int classIndex = classIndices.get(classType);
+            classRecords.add(strings.get(classType.getInternalName()));
+            classRecords.add(classType.getModifiers());
+            classRecords.add(classType.isResolved() ? 1 : 0);
+            classRecords.add(strings.get(classType.getLocation()));
+            classRecords.add(classType.getSuperClass() == null ? -1 : indexOf(classIndices, classType.getSuperClass()));
+            addIndices(classIndices, classType.getInterfaces(), classRecords, index);
+            addIndices(classIndices, classType.getSubTypes(), classRecords, index);
+            classRecords.add(methodRecords.size() / METHOD_RECORD);
+            classRecords.add(classType.getMethods().size());
+            for (final Method method : classType.getMethods()) {
+                methodRecords.add(classIndex);
+                methodRecords.add(strings.get(method.getName()));
+                methodRecords.add(strings.get(method.getDescriptor()));
+                methodRecords.add(method.getModifiers());
+                methodRecords.add(callSiteRecords.size() / CALL_SITE_RECORD);
+                methodRecords.add(method.getCallSites().size());
+                for (final CallSite callSite : method.getCallSites()) {
+                    callSiteRecords.add(callSite.getOpcode());
+                    callSiteRecords.add(strings.get(callSite.getDeclaredTargetClassName()));
+                    callSiteRecords.add(strings.get(callSite.getTargetMethodName()));
+                    callSiteRecords.add(strings.get(callSite.getTargetMethodDescriptor()));
+                    addIndices(classIndices, callSite.getPossibleTargetClasses(), callSiteRecords, index);
+                }
+            }
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(strings.size());
+        out.writeInt(sorted.length);
+        out.writeInt(methodRecords.size() / METHOD_RECORD);
+        out.writeInt(callSiteRecords.size() / CALL_SITE_RECORD);
+        out.writeInt(index.size());
+        int offset = 0;
+        for (final byte[] bytes : strings.bytes) {
+            out.writeInt(offset);
+            offset += bytes.length;
+        }
+        out.writeInt(offset);
+        classRecords.writeTo(out);
+        methodRecords.writeTo(out);
+        callSiteRecords.writeTo(out);
+        index.writeTo(out);
+        for (final byte[] bytes : strings.bytes) {
+            out.write(bytes);
+        }
+    }
+
+    private static int indexOf(final IdentityHashMap<ClassType, Integer> classIndices, final ClassType classType)
+            throws IOException {
+        final Integer index = classIndices.get(classType);
+        if (index == null) {
+            throw new IOException(classType + " is referenced, but not part of the hierarchy");
+        }
+        return index;
+    }
+
+    private static void addIndices(final IdentityHashMap<ClassType, Integer> classIndices,
+                                   final Collection<ClassType> classTypes,
+                                   final IntArray record,
+                                   final IntArray index) throws IOException {
+        record.add(index.size());
+        record.add(classTypes.size());
+        for (final ClassType classType : classTypes) {
+            index.add(indexOf(classIndices, classType));
+        }
+    }
+
+    private static int compareBytes(final byte[] a, final byte[] b) {
+        final int common = Math.min(a.length, b.length);
+        for (int i = 0; i < common; i++) {
+            final int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+
+    /**
+     * Assigns indices to distinct strings, in order of first use.
+     */
+    private static final class StringPool {
+
+        final HashMap<String, Integer> indices = new HashMap<String, Integer>();
+        final List<byte[]> bytes = new ArrayList<byte[]>();
+
+        int get(final String string) {
+            if (string == null) {
+                return -1;
+            }
+            Integer index = indices.get(string);
+            if (index == null) {
+                index = bytes.size();
+                indices.put(string, index);
+                bytes.add(string.getBytes(UTF8));
+            }
+            return index;
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+    }
+
+
+    /**
+     * A growable array of ints.
+     */
+    private static final class IntArray {
+
+        private int[] values = new int[1024];
+        private int size;
+
+        void add(final int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, 2 * size);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeTo(final DataOutputStream out) throws IOException {
+            for (int i = 0; i < size; i++) {
+                out.writeInt(values[i]);
+            }
+        }
+
+    }
+
+}
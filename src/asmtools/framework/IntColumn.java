@@ -0,0 +1,99 @@
+package asmtools.framework;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A growable column of ints in direct (off-heap) buffers. The garbage
+ * collector sees a few small objects per column, however many ints it
+ * holds.
+ * <p/>
+ * The ints are kept in chunks of 64 KB, allocated as they are needed.
+ * Growing a column allocates more chunks and never copies ints, so the old
+ * and the new data never take up direct memory at the same time, and no
+ * outgrown buffer is left waiting for the garbage collector to free its
+ * memory (which caused "Direct buffer memory" errors with one buffer that
+ * was reallocated to grow).
+ * <p/>
+ * An IntColumn is not thread-safe.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+final class IntColumn {
+
+    private static final int CHUNK_SHIFT = 14;
+    // 64 KB per chunk
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // the chunks holding ints are allocated, the rest are null
+    private IntBuffer[] chunks;
+    private int size;
+
+    /**
+     * @param capacity the expected number of ints (to size the table of
+     *                 chunks, the chunks themselves are allocated on demand)
+     */
+    IntColumn(final int capacity) {
+        chunks = new IntBuffer[Math.max(1, (capacity + CHUNK_SIZE - 1) >>> CHUNK_SHIFT)];
+    }
+
+    /**
+     * Append value and return its index.
+     */
+    int add(final int value) {
+        ensureCapacity(size + 1);
+        chunks[size >>> CHUNK_SHIFT].put(size & CHUNK_MASK, value);
+        return size++;
+    }
+
+    int get(final int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        return chunks[index >>> CHUNK_SHIFT].get(index & CHUNK_MASK);
+    }
+
+    void set(final int index, final int value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index + " >= " + size);
+        }
+        chunks[index >>> CHUNK_SHIFT].put(index & CHUNK_MASK, value);
+    }
+
+    /**
+     * Grow the column to (at least) the given size, filling new rows with
+     * value.
+     */
+    void fill(final int newSize, final int value) {
+        ensureCapacity(newSize);
+        for (int i = size; i < newSize; i++) {
+            chunks[i >>> CHUNK_SHIFT].put(i & CHUNK_MASK, value);
+        }
+        size = Math.max(size, newSize);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Allocate the chunks up to the one holding index minCapacity - 1.
+     */
+    private void ensureCapacity(final int minCapacity) {
+        final int chunkCount = (minCapacity + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+        if (chunkCount > chunks.length) {
+            // only the table of chunks is copied (it is on the heap, and small)
+            final IntBuffer[] newChunks = new IntBuffer[Math.max(2 * chunks.length, chunkCount)];
+            System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+            chunks = newChunks;
+        }
+        for (int c = size >>> CHUNK_SHIFT; c < chunkCount; c++) {
+            if (chunks[c] == null) {
+                chunks[c] = ByteBuffer.allocateDirect(4 * CHUNK_SIZE).order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+package asmtools.framework;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The class files of one module of the running JDK, read through the "jrt:/"
+ * file system (Java 9 and later).
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class JrtClassSource implements ClassSource {
+
+    private final String location;
+    private final List<ClassEntry> classEntries;
+
+    private JrtClassSource(final Path moduleDirectory) throws IOException {
+        this.location = "jrt:/" + moduleDirectory.getFileName().toString();
+        final ArrayList<ClassEntry> entries = new ArrayList<ClassEntry>();
+        Files.walkFileTree(moduleDirectory, new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+                final String name = moduleDirectory.relativize(file).toString();
+                if (name.endsWith(".class") && !name.equals("module-info.class")) {
+                    entries.add(new PathEntry(file, name, (int) attributes.size()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        this.classEntries = Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Open all modules of the running JDK, ordered by module name, or return
+     * null if the JDK has no "jrt:/" file system (Java 8 and earlier).
+     */
+    public static List<ClassSource> openModules() throws IOException {
+        final FileSystem fileSystem;
+        try {
+            fileSystem = FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (final ProviderNotFoundException ex) {
+            return null;
+        } catch (final FileSystemNotFoundException ex) {
+            return null;
+        }
+        final ArrayList<Path> moduleDirectories = new ArrayList<Path>();
+        final DirectoryStream<Path> modules = Files.newDirectoryStream(fileSystem.getPath("/modules"));
+        try {
+            for (final Path moduleDirectory : modules) {
+                moduleDirectories.add(moduleDirectory);
+            }
+        } finally {
+            modules.close();
+        }
+        Collections.sort(moduleDirectories);
+        final ArrayList<ClassSource> sources = new ArrayList<ClassSource>();
+        for (final Path moduleDirectory : moduleDirectories) {
+            sources.add(new JrtClassSource(moduleDirectory));
+        }
+        return sources;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public List<ClassEntry> getClassEntries() {
+        return classEntries;
+    }
+
+
+    /**
+     * A class file in a module image.
+     */
+    private static final class PathEntry implements ClassEntry {
+
+        private final Path path;
+        private final String name;
+        private final int size;
+
+        PathEntry(final Path path, final String name, final int size) {
+            this.path = path;
+            this.name = name;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getCrc() {
+            return -1;
+        }
+
+        public byte[] read(final EntryReader reader) throws IOException {
+            final byte[] bytes = Files.readAllBytes(path);
+            if (bytes.length != size) {
+                throw new IOException(path + " changed while reading");
+            }
+            return bytes;
+        }
+
+        public String toString() {
+            return name;
+        }
+
+    }
+
+}
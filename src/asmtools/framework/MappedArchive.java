@@ -0,0 +1,258 @@
+package asmtools.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * A ZIP (JAR) archive read from a ByteBuffer, usually a memory-mapped file.
+ * The central directory is parsed directly from the buffer, and entry data
+ * is read by an EntryReader straight into a byte array of the right size,
+ * without going through java.util.zip.ZipFile and its InputStreams.
+ * <p/>
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class MappedArchive implements ClassSource {
+
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int LOC_HEADER_SIZE = 30;
+    private static final int CEN_HEADER_SIZE = 46;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    private final String name;
+    private final ByteBuffer buffer;
+    private final List<ArchiveEntry> entries;
+    private final List<ClassEntry> classEntries;
+
+    /**
+     * Map the given archive file into memory and read its central directory.
+     */
+    public static MappedArchive open(final String fileName) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            final FileChannel channel = file.getChannel();
+            final long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(fileName + " is too large to be mapped (" + length + " bytes)");
+            }
+            // the mapping stays valid after the channel is closed
+            return new MappedArchive(fileName, channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Read the central directory of the archive contained in the given buffer
+     * (from its position to its limit).
+     *
+     * @param name   the name of the archive, used as location of its classes
+     * @param buffer the contents of the archive
+     */
+    public MappedArchive(final String name, final ByteBuffer buffer) throws IOException {
+        this.name = name;
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = Collections.unmodifiableList(readCentralDirectory());
+        final ArrayList<ClassEntry> classes = new ArrayList<ClassEntry>();
+        for (final ArchiveEntry entry : entries) {
+            if (entry.getName().toLowerCase().endsWith(".class")) {
+                classes.add(entry);
+            }
+        }
+        this.classEntries = Collections.unmodifiableList(classes);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getLocation() {
+        return name;
+    }
+
+    public List<ClassEntry> getClassEntries() {
+        return classEntries;
+    }
+
+    /**
+     * Get all entries, in the order of the central directory.
+     */
+    public List<ArchiveEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Is this a multi-release JAR, i.e. does its manifest say
+     * "Multi-Release: true"? Only then does the JVM load classes from
+     * META-INF/versions/N/.
+     */
+    public boolean isMultiRelease(final EntryReader reader) throws IOException {
+        for (final ArchiveEntry entry : entries) {
+            if (entry.getName().equals(MANIFEST_NAME)) {
+                final byte[] bytes = reader.read(this, entry);
+                final Manifest manifest = new Manifest(new ByteArrayInputStream(bytes, 0, entry.getSize()));
+                return "true".equalsIgnoreCase(manifest.getMainAttributes().getValue(Attributes.Name.MULTI_RELEASE));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Open an archive nested in this one (e.g. a library in BOOT-INF/lib of a
+     * Spring Boot JAR) in memory, without extracting it to a file. A stored
+     * nested archive is a view of this archive's buffer, a compressed one is
+     * inflated into a new array.
+     */
+    public MappedArchive openNested(final ArchiveEntry entry, final EntryReader reader) throws IOException {
+        final String nestedName = name + "!/" + entry.getName();
+        if (entry.isStored()) {
+            final ByteBuffer nested = buffer.duplicate();
+            nested.position(getDataOffset(entry));
+            nested.limit(nested.position() + entry.getSize());
+            return new MappedArchive(nestedName, nested);
+        }
+        return new MappedArchive(nestedName, ByteBuffer.wrap(reader.readCopy(this, entry)));
+    }
+
+    /**
+     * Get the offset of the (possibly compressed) data of the given entry.
+     */
+    int getDataOffset(final ArchiveEntry entry) throws IOException {
+        final long offset = entry.getLocalHeaderOffset();
+        if (offset < 0 || offset + LOC_HEADER_SIZE > buffer.limit() || buffer.getInt((int) offset) != LOC_SIG) {
+            throw new IOException(name + ": invalid local header for " + entry.getName());
+        }
+        final int nameLength = buffer.getShort((int) offset + 26) & 0xFFFF;
+        final int extraLength = buffer.getShort((int) offset + 28) & 0xFFFF;
+        final long dataOffset = offset + LOC_HEADER_SIZE + nameLength + extraLength;
+        if (dataOffset + entry.getCompressedSize() > buffer.limit()) {
+            throw new IOException(name + ": truncated data for " + entry.getName());
+        }
+        return (int) dataOffset;
+    }
+
+    /**
+     * Copy length bytes starting at offset into dst (starting at index 0).
+     */
+    void copy(final int offset, final byte[] dst, final int length) {
+        final ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(dst, 0, length);
+    }
+
+    private ArrayList<ArchiveEntry> readCentralDirectory() throws IOException {
+        final int end = findEndOfCentralDirectory();
+        long entryCount = buffer.getShort(end + 10) & 0xFFFF;
+        long directorySize = buffer.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        int directoryEnd = end;
+
+        final int locator = end - 20;
+        if (locator >= 0 && buffer.getInt(locator) == ZIP64_LOCATOR_SIG) {
+            final long zip64End = buffer.getLong(locator + 8);
+            if (zip64End >= 0 && zip64End + 56 <= locator && buffer.getInt((int) zip64End) == ZIP64_END_SIG) {
+                entryCount = buffer.getLong((int) zip64End + 32);
+                directorySize = buffer.getLong((int) zip64End + 40);
+                directoryOffset = buffer.getLong((int) zip64End + 48);
+                directoryEnd = (int) zip64End;
+            }
+        }
+
+        // like ZipFile, tolerate data prepended to the archive (e.g. launcher scripts)
+        final long base = directoryEnd - directorySize - directoryOffset;
+        if (base < 0 || entryCount < 0 || entryCount > Integer.MAX_VALUE) {
+            throw new IOException(name + ": invalid central directory");
+        }
+
+        final ArrayList<ArchiveEntry> result = new ArrayList<ArchiveEntry>((int) entryCount);
+        byte[] nameBytes = new byte[256];
+        int position = (int) (base + directoryOffset);
+        for (long i = 0; i < entryCount; i++) {
+            if (position + CEN_HEADER_SIZE > directoryEnd || buffer.getInt(position) != CEN_SIG) {
+                throw new IOException(name + ": invalid central directory entry " + i);
+            }
+            final int method = buffer.getShort(position + 10) & 0xFFFF;
+            final long crc = buffer.getInt(position + 16) & 0xFFFFFFFFL;
+            long compressedSize = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+            long size = buffer.getInt(position + 24) & 0xFFFFFFFFL;
+            final int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            final int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            final int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            long localHeaderOffset = buffer.getInt(position + 42) & 0xFFFFFFFFL;
+
+            if (nameBytes.length < nameLength) {
+                nameBytes = new byte[nameLength];
+            }
+            copy(position + CEN_HEADER_SIZE, nameBytes, nameLength);
+            final String entryName = new String(nameBytes, 0, nameLength, UTF8);
+
+            if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                // look for the ZIP64 extended information extra field
+                int extra = position + CEN_HEADER_SIZE + nameLength;
+                final int extraEnd = extra + extraLength;
+                while (extra + 4 <= extraEnd) {
+                    final int id = buffer.getShort(extra) & 0xFFFF;
+                    final int length = buffer.getShort(extra + 2) & 0xFFFF;
+                    if (id == ZIP64_EXTRA_ID) {
+                        int field = extra + 4;
+                        if (size == 0xFFFFFFFFL) {
+                            size = buffer.getLong(field);
+                            field += 8;
+                        }
+                        if (compressedSize == 0xFFFFFFFFL) {
+                            compressedSize = buffer.getLong(field);
+                            field += 8;
+                        }
+                        if (localHeaderOffset == 0xFFFFFFFFL) {
+                            localHeaderOffset = buffer.getLong(field);
+                        }
+                        break;
+                    }
+                    extra += 4 + length;
+                }
+            }
+
+            if (size > Integer.MAX_VALUE || compressedSize > Integer.MAX_VALUE) {
+                throw new IOException(name + ": entry " + entryName + " is too large");
+            }
+            result.add(new ArchiveEntry(this, entryName, method, crc, (int) compressedSize, (int) size,
+                    base + localHeaderOffset));
+            position += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private int findEndOfCentralDirectory() throws IOException {
+        final int limit = buffer.limit();
+        final int lowest = Math.max(0, limit - END_HEADER_SIZE - MAX_COMMENT_SIZE);
+        for (int position = limit - END_HEADER_SIZE; position >= lowest; position--) {
+            if (buffer.getInt(position) == END_SIG
+                    && position + END_HEADER_SIZE + (buffer.getShort(position + 20) & 0xFFFF) <= limit) {
+                return position;
+            }
+        }
+        throw new IOException(name + ": not a ZIP archive (no end of central directory record)");
+    }
+
+}
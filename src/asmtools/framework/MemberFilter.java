@@ -0,0 +1,25 @@
+package asmtools.framework;
+
+/**
+ * Decides which classes and methods a FilteredAnalyzer passes on to the
+ * analyzer it wraps.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public interface MemberFilter {
+
+    /**
+     * @param internalName e.g. "java/lang/Object"
+     */
+    public boolean acceptClass(String internalName);
+
+    /**
+     * Called for each method of an accepted class.
+     *
+     * @param className  the internal name of the declaring class
+     * @param name       e.g. "main"
+     * @param descriptor e.g. "([Ljava/lang/String;)V"
+     */
+    public boolean acceptMethod(String className, String name, String descriptor);
+
+}
@@ -4,6 +4,7 @@ import org.objectweb.asm.Opcodes;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 
 /**
  * A method declared in a class or interface. May be abstract. A method can
@@ -15,14 +16,19 @@ import java.util.Collection;
  */
 public final class Method {
 
-	private final String declaringClassName;
-	private final String name;
-	private final String descriptor;
+	private final ClassType declaringClass;
+	private final int nameId;
+	private final int descriptorId;
 	private final int modifiers;
 	private final ArrayList<CallSite> callSites;
+	// null until the first one is added
+	private ArrayList<ClassType> instantiatedClasses;
 
 	/**
 	 * 
+	 * @param declaringClass
+	 *            The class declaring this method; the name and descriptor are
+	 *            interned in the SymbolTable of its hierarchy.
 	 * @param name
 	 *            The name of the method, "<init>" for constructor or instance
 	 *            initializer, "<clinit>" for static initializer.
@@ -31,11 +37,25 @@ public final class Method {
 	 *            means the method takes two arguments, an int and a long, and
 	 *            its return type is void)
 	 */
-	public Method(final String declaringClassName, final String name,
+	public Method(final ClassType declaringClass, final String name,
 			final String descriptor, final int modifiers) {
-		this.declaringClassName = declaringClassName;
-		this.name = name;
-		this.descriptor = descriptor;
+		this.declaringClass = declaringClass;
+		final SymbolTable symbolTable = declaringClass.getSymbolTable();
+		this.nameId = symbolTable.intern(name);
+		this.descriptorId = symbolTable.intern(descriptor);
+		this.modifiers = modifiers;
+		this.callSites = new ArrayList<CallSite>();
+	}
+
+	/**
+	 * Create a Method given the IDs of its name and descriptor in the
+	 * SymbolTable of the declaring class's hierarchy.
+	 */
+	Method(final ClassType declaringClass, final int nameId,
+			final int descriptorId, final int modifiers) {
+		this.declaringClass = declaringClass;
+		this.nameId = nameId;
+		this.descriptorId = descriptorId;
 		this.modifiers = modifiers;
 		this.callSites = new ArrayList<CallSite>();
 	}
@@ -44,15 +64,41 @@ public final class Method {
 	 * Get the internal name of the class declaring this method.
 	 */
 	public String getDeclaringClassName() {
-		return declaringClassName;
+		return declaringClass.getInternalName();
+	}
+
+	public ClassType getDeclaringClass() {
+		return declaringClass;
 	}
 
 	public String getName() {
-		return name;
+		return declaringClass.getSymbolTable().get(nameId);
 	}
 
 	public String getDescriptor() {
-		return descriptor;
+		return declaringClass.getSymbolTable().get(descriptorId);
+	}
+
+	/**
+	 * Get the parameter and return types, parsed from the descriptor (once
+	 * per distinct descriptor in the hierarchy).
+	 */
+	public MethodSignature getSignature() throws TypeInconsistencyException {
+		return declaringClass.getHierarchy().getMethodSignature(descriptorId);
+	}
+
+	/**
+	 * Get the ID of the name in the hierarchy's SymbolTable.
+	 */
+	public int getNameId() {
+		return nameId;
+	}
+
+	/**
+	 * Get the ID of the descriptor in the hierarchy's SymbolTable.
+	 */
+	public int getDescriptorId() {
+		return descriptorId;
 	}
 
 	/**
@@ -88,9 +134,9 @@ public final class Method {
 
 	/**
 	 * Add a CallSite to this method. Usually done only when really needed (e.g.
-	 * by CallGraphBuilder).
+	 * by CallGraphBuilder). Thread-safe.
 	 */
-	public void addCallSite(final CallSite callSite) {
+	public synchronized void addCallSite(final CallSite callSite) {
 		callSites.add(callSite);
 	}
 
@@ -102,4 +148,24 @@ public final class Method {
 		return callSites;
 	}
 
+	/**
+	 * Add a class this method instantiates (with a NEW instruction). Like
+	 * CallSites, only added when really needed (e.g. by CallGraphBuilder).
+	 * Thread-safe.
+	 */
+	public synchronized void addInstantiatedClass(final ClassType classType) {
+		if (instantiatedClasses == null) {
+			instantiatedClasses = new ArrayList<ClassType>(2);
+		}
+		instantiatedClasses.add(classType);
+	}
+
+	/**
+	 * Get the classes this method instantiates, once per NEW instruction
+	 * (will return an empty collection if none were added).
+	 */
+	public Collection<ClassType> getInstantiatedClasses() {
+		return instantiatedClasses == null ? Collections.<ClassType>emptyList() : instantiatedClasses;
+	}
+
 }
\ No newline at end of file
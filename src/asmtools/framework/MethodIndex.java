@@ -0,0 +1,86 @@
+package asmtools.framework;
+
+/**
+ * The methods declared in one class, hashed on the IDs of their name and
+ * descriptor. Open addressing with linear probing over parallel arrays, so
+ * a lookup costs a multiplication and (usually) one probe, however many
+ * methods the class declares.
+ * <p/>
+ * If two methods have the same name and descriptor (which a valid class
+ * file does not allow) the first one added wins.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+final class MethodIndex {
+
+    // name ID << 32 | descriptor ID, valid where methods[slot] != null
+    private long[] keys;
+    private Method[] methods;
+    private int size;
+
+    MethodIndex() {
+        keys = new long[8];
+        methods = new Method[8];
+    }
+
+    void add(final Method method) {
+        final long key = key(method.getNameId(), method.getDescriptorId());
+        final int mask = methods.length - 1;
+        int slot = slot(key, mask);
+        while (methods[slot] != null) {
+            if (keys[slot] == key) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        methods[slot] = method;
+        size++;
+        // keep the load factor at most 1/2
+        if (2 * size > methods.length) {
+            rehash();
+        }
+    }
+
+    Method get(final int nameId, final int descriptorId) {
+        final long key = key(nameId, descriptorId);
+        final int mask = methods.length - 1;
+        int slot = slot(key, mask);
+        Method method;
+        while ((method = methods[slot]) != null) {
+            if (keys[slot] == key) {
+                return method;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private void rehash() {
+        final long[] oldKeys = keys;
+        final Method[] oldMethods = methods;
+        keys = new long[2 * oldKeys.length];
+        methods = new Method[2 * oldMethods.length];
+        final int mask = methods.length - 1;
+        for (int i = 0; i < oldMethods.length; i++) {
+            if (oldMethods[i] != null) {
+                int slot = slot(oldKeys[i], mask);
+                while (methods[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                methods[slot] = oldMethods[i];
+            }
+        }
+    }
+
+    private static long key(final int nameId, final int descriptorId) {
+        return ((long) nameId << 32) | (descriptorId & 0xFFFFFFFFL);
+    }
+
+    private static int slot(final long key, final int mask) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+}
@@ -0,0 +1,254 @@
+package asmtools.framework;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves method references and selects the method invoked on a receiver
+ * class, following the Java Virtual Machine Specification: resolution as in
+ * JVMS 5.4.3.3 (classes) and 5.4.3.4 (interfaces), and selection as in JVMS
+ * 5.4.6. Both search the superclass chain first and then the maximally
+ * specific superinterface methods, so default methods are found.
+ * <p/>
+ * Results are memoized per (class, name, descriptor). Every ClassHierarchy
+ * has one resolver (see ClassHierarchy.getMethodResolver()); memoized
+ * results are dropped when the hierarchy's version changes. A resolver may
+ * be used by several threads, as long as nobody changes the hierarchy
+ * meanwhile.
+ * <p/>
+ * Access control and signature polymorphic methods are not modeled.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class MethodResolver {
+
+    private final ClassHierarchy hierarchy;
+    private final ConcurrentHashMap<Key, Entry> resolved;
+    private final ConcurrentHashMap<Key, Entry> selected;
+    private volatile int cacheVersion;
+
+    MethodResolver(final ClassHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        resolved = new ConcurrentHashMap<Key, Entry>();
+        selected = new ConcurrentHashMap<Key, Entry>();
+        cacheVersion = hierarchy.getVersion();
+    }
+
+    /**
+     * Resolve a reference to the method with the given name and descriptor in
+     * the given class or interface (JVMS 5.4.3.3 resp. 5.4.3.4).
+     *
+     * @return the declaration the reference resolves to (which may be
+     *         abstract), or null if there is none in the known hierarchy
+     */
+    public Method resolveMethod(final ClassType classType, final String name, final String descriptor) {
+        final SymbolTable symbolTable = hierarchy.getSymbolTable();
+        final int nameId = symbolTable.find(name);
+        final int descriptorId = symbolTable.find(descriptor);
+        return nameId == -1 || descriptorId == -1 ? null : resolveMethod(classType, nameId, descriptorId);
+    }
+
+    /**
+     * Like resolveMethod(ClassType, String, String), given the IDs of the name
+     * and descriptor in the hierarchy's SymbolTable.
+     */
+    public Method resolveMethod(final ClassType classType, final int nameId, final int descriptorId) {
+        final int version = checkVersion();
+        final Key key = new Key(classType.getNameId(), nameId, descriptorId);
+        final Entry entry = resolved.get(key);
+        if (entry != null && entry.version == version) {
+            return entry.method;
+        }
+        Method method = findInClassChain(classType, nameId, descriptorId, classType.isInterface());
+        if (method == null) {
+            method = findInSuperInterfaces(classType, nameId, descriptorId, false);
+        }
+        resolved.put(key, new Entry(version, method));
+        return method;
+    }
+
+    /**
+     * Select the method invoked when the method with the given name and
+     * descriptor is invoked (with invokevirtual or invokeinterface) on an
+     * instance of exactly the given receiver class (JVMS 5.4.6).
+     *
+     * @return the concrete method invoked, or null if there is none (the
+     *         invocation would throw an AbstractMethodError, or the known
+     *         hierarchy is incomplete)
+     */
+    public Method selectMethod(final ClassType receiver, final int nameId, final int descriptorId) {
+        final int version = checkVersion();
+        final Key key = new Key(receiver.getNameId(), nameId, descriptorId);
+        final Entry entry = selected.get(key);
+        if (entry != null && entry.version == version) {
+            return entry.method;
+        }
+        Method method = null;
+        boolean found = false;
+        for (ClassType c = receiver; c != null && !found; c = c.getSuperClass()) {
+            final Method candidate = c.getMethod(nameId, descriptorId);
+            // static methods and private methods of superclasses do not override
+            if (candidate != null && !candidate.isStatic() && (c == receiver || !candidate.isPrivate())) {
+                method = candidate.isAbstract() ? null : candidate;
+                found = true;
+            }
+        }
+        if (!found) {
+            method = findInSuperInterfaces(receiver, nameId, descriptorId, true);
+        }
+        selected.put(key, new Entry(version, method));
+        return method;
+    }
+
+    /**
+     * Drop memoized results if the hierarchy changed, and return the current
+     * version.
+     */
+    private int checkVersion() {
+        final int version = hierarchy.getVersion();
+        if (version != cacheVersion) {
+            synchronized (this) {
+                if (version != cacheVersion) {
+                    resolved.clear();
+                    selected.clear();
+                    cacheVersion = version;
+                }
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Find the first declaration in the class or its superclasses; for an
+     * interface, only the interface itself and public instance methods of
+     * Object (the superclass of every interface) count.
+     */
+    private static Method findInClassChain(final ClassType classType,
+                                           final int nameId,
+                                           final int descriptorId,
+                                           final boolean isInterface) {
+        final Method own = classType.getMethod(nameId, descriptorId);
+        if (own != null) {
+            return own;
+        }
+        for (ClassType c = classType.getSuperClass(); c != null; c = c.getSuperClass()) {
+            final Method method = c.getMethod(nameId, descriptorId);
+            if (method != null && (!isInterface || (method.isPublic() && !method.isStatic()))) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the maximally specific superinterface method: if exactly one of
+     * the maximally specific ones is concrete, that one; otherwise, if not
+     * concreteOnly, the first (abstract) one found, else null.
+     */
+    private static Method findInSuperInterfaces(final ClassType classType,
+                                                final int nameId,
+                                                final int descriptorId,
+                                                final boolean concreteOnly) {
+        final List<Method> candidates = new ArrayList<Method>();
+        for (final ClassType superInterface : getSuperInterfaces(classType)) {
+            final Method method = superInterface.getMethod(nameId, descriptorId);
+            if (method != null && !method.isPrivate() && !method.isStatic()) {
+                candidates.add(method);
+            }
+        }
+        Method concrete = null;
+        int concreteCount = 0;
+        for (final Method candidate : candidates) {
+            if (!candidate.isAbstract() && isMaximallySpecific(candidate, candidates)) {
+                concrete = candidate;
+                concreteCount++;
+            }
+        }
+        if (concreteCount == 1) {
+            return concrete;
+        }
+        return concreteOnly || candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    private static boolean isMaximallySpecific(final Method candidate, final List<Method> candidates) {
+        final ClassType declaringInterface = candidate.getDeclaringClass();
+        for (final Method other : candidates) {
+            final ClassType otherInterface = other.getDeclaringClass();
+            if (otherInterface != declaringInterface
+                    && getSuperInterfaces(otherInterface).contains(declaringInterface)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get all direct and indirect superinterfaces of the class or interface
+     * (including those of its superclasses), nearest first.
+     */
+    private static Collection<ClassType> getSuperInterfaces(final ClassType classType) {
+        final LinkedHashSet<ClassType> superInterfaces = new LinkedHashSet<ClassType>();
+        for (ClassType c = classType; c != null; c = c.getSuperClass()) {
+            addSuperInterfaces(c, superInterfaces);
+        }
+        return superInterfaces;
+    }
+
+    private static void addSuperInterfaces(final ClassType classType, final LinkedHashSet<ClassType> superInterfaces) {
+        for (final ClassType superInterface : classType.getInterfaces()) {
+            if (superInterfaces.add(superInterface)) {
+                addSuperInterfaces(superInterface, superInterfaces);
+            }
+        }
+    }
+
+
+    private static final class Key {
+
+        private final int classNameId;
+        private final int nameId;
+        private final int descriptorId;
+
+        Key(final int classNameId, final int nameId, final int descriptorId) {
+            this.classNameId = classNameId;
+            this.nameId = nameId;
+            this.descriptorId = descriptorId;
+        }
+
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return classNameId == other.classNameId
+                    && nameId == other.nameId
+                    && descriptorId == other.descriptorId;
+        }
+
+        public int hashCode() {
+            return (classNameId * 31 + nameId) * 31 + descriptorId;
+        }
+
+    }
+
+
+    /**
+     * A memoized result (null if there is no method), valid for one version
+     * of the hierarchy.
+     */
+    private static final class Entry {
+
+        private final int version;
+        private final Method method;
+
+        Entry(final int version, final Method method) {
+            this.version = version;
+            this.method = method;
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package asmtools.framework;
+
+import java.util.ArrayList;
+
+/**
+ * The parameter and return types of a method, parsed from its descriptor
+ * (e.g. "(I[Ljava/lang/String;)V"), not from the generic signature. A
+ * ClassHierarchy parses each distinct descriptor once, and all methods and
+ * call sites with that descriptor share the same MethodSignature (see
+ * ClassHierarchy.getMethodSignature()), so asking for the types does not
+ * allocate.
+ * <p/>
+ * The types are those of the hierarchy: class types are created with
+ * getOrCreateClass(), array types with getOrCreateArrayType(). A method
+ * returning nothing has return type PrimitiveType.VOID.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class MethodSignature {
+
+    private final int descriptorId;
+    private final String descriptor;
+    private final Type[] parameterTypes;
+    private final Type returnType;
+
+    private MethodSignature(final int descriptorId,
+                            final String descriptor,
+                            final Type[] parameterTypes,
+                            final Type returnType) {
+        this.descriptorId = descriptorId;
+        this.descriptor = descriptor;
+        this.parameterTypes = parameterTypes;
+        this.returnType = returnType;
+    }
+
+    /**
+     * Parse the given method descriptor, creating the types it mentions in
+     * the hierarchy.
+     */
+    static MethodSignature parse(final ClassHierarchy hierarchy,
+                                 final int descriptorId,
+                                 final String descriptor) throws TypeInconsistencyException {
+        if (descriptor.length() < 3 || descriptor.charAt(0) != '(') {
+            throw new TypeInconsistencyException("Malformed method descriptor " + descriptor);
+        }
+        final ArrayList<Type> parameterTypes = new ArrayList<Type>();
+        int i = 1;
+        while (i < descriptor.length() && descriptor.charAt(i) != ')') {
+            final int end = endOfType(descriptor, i);
+            parameterTypes.add(parseType(hierarchy, descriptor, i, end));
+            i = end;
+        }
+        if (i + 1 >= descriptor.length()) {
+            throw new TypeInconsistencyException("Malformed method descriptor " + descriptor);
+        }
+        final int end = endOfType(descriptor, i + 1);
+        if (end != descriptor.length()) {
+            throw new TypeInconsistencyException("Malformed method descriptor " + descriptor);
+        }
+        final Type returnType = descriptor.charAt(i + 1) == 'V' && end == i + 2
+                ? PrimitiveType.VOID
+                : parseType(hierarchy, descriptor, i + 1, end);
+        return new MethodSignature(descriptorId, descriptor,
+                parameterTypes.toArray(new Type[parameterTypes.size()]), returnType);
+    }
+
+    /**
+     * Get the index after the field descriptor starting at start.
+     */
+    private static int endOfType(final String descriptor, final int start) throws TypeInconsistencyException {
+        int i = start;
+        while (i < descriptor.length() && descriptor.charAt(i) == '[') {
+            i++;
+        }
+        if (i < descriptor.length() && descriptor.charAt(i) == 'L') {
+            final int semicolon = descriptor.indexOf(';', i);
+            if (semicolon < 0) {
+                throw new TypeInconsistencyException("Malformed method descriptor " + descriptor);
+            }
+            return semicolon + 1;
+        }
+        if (i >= descriptor.length()) {
+            throw new TypeInconsistencyException("Malformed method descriptor " + descriptor);
+        }
+        return i + 1;
+    }
+
+    private static Type parseType(final ClassHierarchy hierarchy,
+                                  final String descriptor,
+                                  final int start,
+                                  final int end) throws TypeInconsistencyException {
+        switch (descriptor.charAt(start)) {
+            case '[':
+                return hierarchy.getOrCreateArrayType(descriptor.substring(start, end));
+            case 'L':
+                return hierarchy.getOrCreateClass(descriptor.substring(start + 1, end - 1));
+            case 'B':
+                return PrimitiveType.BYTE;
+            case 'S':
+                return PrimitiveType.SHORT;
+            case 'C':
+                return PrimitiveType.CHAR;
+            case 'I':
+                return PrimitiveType.INT;
+            case 'J':
+                return PrimitiveType.LONG;
+            case 'F':
+                return PrimitiveType.FLOAT;
+            case 'D':
+                return PrimitiveType.DOUBLE;
+            case 'Z':
+                return PrimitiveType.BOOLEAN;
+            default:
+                throw new TypeInconsistencyException("Malformed method descriptor " + descriptor);
+        }
+    }
+
+    /**
+     * Get the ID of the descriptor in the hierarchy's SymbolTable.
+     */
+    public int getDescriptorId() {
+        return descriptorId;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public int getParameterCount() {
+        return parameterTypes.length;
+    }
+
+    /**
+     * Get the type of the i-th parameter (not counting the receiver).
+     */
+    public Type getParameterType(final int i) {
+        return parameterTypes[i];
+    }
+
+    public Type getReturnType() {
+        return returnType;
+    }
+
+    public String toString() {
+        return descriptor;
+    }
+
+}
@@ -0,0 +1,260 @@
+package asmtools.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent cache of ClassSummaries, keyed by location, entry name, CRC-32
+ * and size of the class file. An ArchiveScanner with a cache replays the
+ * summary of an unchanged class file instead of reading and parsing it.
+ * <p/>
+ * A summary only contains the class header, the method declarations and the
+ * call and NEW instructions, so a cache must only be used with analyzers that
+ * look at nothing else (like ClassHierarchyBuilder and CallGraphBuilder),
+ * and VERSION must change whenever a summary starts keeping more. A scanner
+ * with ClassAnalyzers (which get a whole ClassNode) does not replay
+ * summaries, it only stores them.
+ * <p/>
+ * Instances are thread-safe.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ScanCache {
+
+    private static final int MAGIC = 0x41534d43; // "ASMC"
+    private static final int VERSION = 2;
+
+    private final File file;
+    private final ConcurrentHashMap<String, CachedEntry> entries;
+    private final Set<String> scannedLocations;
+    private int hits;
+    private int misses;
+
+    /**
+     * Create a cache backed by the given file, and load it if the file exists.
+     * An unreadable or outdated file is ignored (and overwritten on save()).
+     */
+    public ScanCache(final String fileName) {
+        this.file = new File(fileName);
+        this.entries = new ConcurrentHashMap<String, CachedEntry>();
+        this.scannedLocations = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        if (file.exists()) {
+            try {
+                load();
+            } catch (final IOException ex) {
+                System.err.println("Ignoring scan cache " + file + ": " + ex);
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Get the cached summary of the given class file, or null if there is none
+     * for this CRC and size, or if it lacks the code that is needed.
+     */
+    ClassSummary get(final String location,
+                     final String entryName,
+                     final long crc,
+                     final int size,
+                     final boolean withCode) {
+        scannedLocations.add(location);
+        final CachedEntry entry = entries.get(key(location, entryName));
+        if (entry != null && entry.crc == crc && entry.size == size && (entry.summary.isWithCode() || !withCode)) {
+            entry.used = true;
+            count(true);
+            return entry.summary;
+        }
+        count(false);
+        return null;
+    }
+
+    void put(final String location,
+             final String entryName,
+             final long crc,
+             final int size,
+             final ClassSummary summary) {
+        final CachedEntry entry = new CachedEntry(crc, size, summary);
+        entry.used = true;
+        entries.put(key(location, entryName), entry);
+    }
+
+    private synchronized void count(final boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Write the cache to its file. Entries of locations that were scanned but
+     * not found again (deleted or renamed classes) are dropped, entries of
+     * locations that were not scanned at all are kept.
+     */
+    public void save() throws IOException {
+        final StringTableWriter body = new StringTableWriter();
+        int count = 0;
+        for (final Map.Entry<String, CachedEntry> mapEntry : entries.entrySet()) {
+            final String key = mapEntry.getKey();
+            final CachedEntry entry = mapEntry.getValue();
+            if (entry.used || !scannedLocations.contains(key.substring(0, key.indexOf('\n')))) {
+                body.writeString(key);
+                body.writeLong(entry.crc);
+                body.writeInt(entry.size);
+                entry.summary.write(body);
+                count++;
+            }
+        }
+
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(body.strings.size());
+            for (final String string : body.strings) {
+                out.writeUTF(string);
+            }
+            out.writeInt(count);
+            body.bytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void load() throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a scan cache of version " + VERSION);
+            }
+            final String[] strings = new String[in.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = readString(in, strings);
+                final long crc = in.readLong();
+                final int size = in.readInt();
+                entries.put(key, new CachedEntry(crc, size, ClassSummary.read(in, strings)));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String key(final String location, final String entryName) {
+        // '\n' can appear neither in a path nor in an entry name
+        return location + '\n' + entryName;
+    }
+
+    static String readString(final DataInput in, final String[] strings) throws IOException {
+        final int index = in.readInt();
+        return index < 0 ? null : strings[index];
+    }
+
+    static String[] readStrings(final DataInput in, final String[] strings) throws IOException {
+        final String[] result = new String[in.readInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = readString(in, strings);
+        }
+        return result;
+    }
+
+
+    private static final class CachedEntry {
+
+        final long crc;
+        final int size;
+        final ClassSummary summary;
+        volatile boolean used;
+
+        CachedEntry(final long crc, final int size, final ClassSummary summary) {
+            this.crc = crc;
+            this.size = size;
+            this.summary = summary;
+        }
+
+    }
+
+
+    /**
+     * Writes data to an in-memory buffer, with each distinct string replaced
+     * by its index in a string table.
+     */
+    static final class StringTableWriter {
+
+        private final ByteArrayOutputStream bytes;
+        private final DataOutputStream out;
+        private final HashMap<String, Integer> indices;
+        private final ArrayList<String> strings;
+
+        StringTableWriter() {
+            bytes = new ByteArrayOutputStream();
+            out = new DataOutputStream(bytes);
+            indices = new HashMap<String, Integer>();
+            strings = new ArrayList<String>();
+        }
+
+        void writeString(final String string) throws IOException {
+            if (string == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer index = indices.get(string);
+            if (index == null) {
+                index = strings.size();
+                indices.put(string, index);
+                strings.add(string);
+            }
+            out.writeInt(index);
+        }
+
+        void writeStrings(final String[] strings) throws IOException {
+            out.writeInt(strings.length);
+            for (final String string : strings) {
+                writeString(string);
+            }
+        }
+
+        void writeBoolean(final boolean value) throws IOException {
+            out.writeBoolean(value);
+        }
+
+        void writeByte(final int value) throws IOException {
+            out.writeByte(value);
+        }
+
+        void writeInt(final int value) throws IOException {
+            out.writeInt(value);
+        }
+
+        void writeLong(final long value) throws IOException {
+            out.writeLong(value);
+        }
+
+    }
+
+}
@@ -0,0 +1,45 @@
+package asmtools.framework;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event for one phase (read, parse or analyze) of
+ * the scan of one class by an ArchiveScanner. The same phases are summed up
+ * in ScanStatistics; a recording shows each one on the thread that ran it,
+ * e.g. to see which stage of a pipelined scan is the bottleneck.
+ * <p/>
+ * The event is disabled unless a recording enables it (e.g. with
+ * -XX:StartFlightRecording and a settings file, or in JDK Mission Control);
+ * a disabled event costs about as much as allocating it.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+@Name("asmtools.ScanPhase")
+@Label("Scan Phase")
+@Category({"asmtools", "Scan"})
+@Description("One phase of the scan of one class")
+@StackTrace(false)
+final class ScanPhaseEvent extends Event {
+
+    @Label("Phase")
+    private final String phase;
+
+    @Label("Location")
+    @Description("The archive or directory the class is in")
+    private final String location;
+
+    @Label("Entry")
+    private final String entry;
+
+    ScanPhaseEvent(final String phase, final String location, final ClassEntry entry) {
+        this.phase = phase;
+        this.location = location;
+        this.entry = entry.getName();
+    }
+
+}
@@ -0,0 +1,68 @@
+package asmtools.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of ArchiveScanner.scanAll(): which archives were scanned
+ * completely, and which were not (and why). The analyzers have seen all
+ * classes of the scanned archives and some classes of the failed ones.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ScanResult {
+
+    private final List<String> scanned;
+    private final Map<String, Throwable> failures;
+    private boolean timedOut;
+
+    ScanResult() {
+        scanned = new ArrayList<String>();
+        failures = new LinkedHashMap<String, Throwable>();
+    }
+
+    void addScanned(final String path) {
+        scanned.add(path);
+    }
+
+    void addFailure(final String path, final Throwable reason) {
+        failures.put(path, reason);
+    }
+
+    void setTimedOut() {
+        timedOut = true;
+    }
+
+    /**
+     * Get the paths of the archives that were scanned completely, in the
+     * order they were given to scanAll().
+     */
+    public List<String> getScanned() {
+        return Collections.unmodifiableList(scanned);
+    }
+
+    /**
+     * Get the paths of the archives that were not scanned completely, in
+     * the order they were given to scanAll(), each with the exception that
+     * stopped it (a CancellationException if the scan ran out of time or was
+     * cancelled).
+     */
+    public Map<String, Throwable> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Did the scan stop because it reached its deadline?
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+}
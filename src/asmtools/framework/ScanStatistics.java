@@ -0,0 +1,240 @@
+package asmtools.framework;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and per-phase timings of all scans and analyses in this JVM.
+ * ArchiveScanner, EntryReader, the builders and the dumpers update the
+ * shared instance as they go; register() makes it visible as a JMX MXBean
+ * named OBJECT_NAME, so a running analysis can be watched with JConsole.
+ * <p/>
+ * Instances are thread-safe, and updating them is cheap enough to be done
+ * always. Only the time spent in each analyzer is measured on demand (see
+ * setAnalyzersTimed()).
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class ScanStatistics implements ScanStatisticsMXBean {
+
+    public static final String OBJECT_NAME = "asmtools:type=ScanStatistics";
+
+    private static final ScanStatistics INSTANCE = new ScanStatistics();
+    private static boolean registered;
+
+    private final AtomicLong entriesRead;
+    private final AtomicLong bytesRead;
+    private final AtomicLong entriesInflated;
+    private final AtomicLong bytesInflated;
+    private final AtomicLong classesParsed;
+    private final AtomicLong classesReplayed;
+    private final AtomicLong callSitesResolved;
+    private final AtomicLong callSiteTargets;
+    private final AtomicLong dotFilesWritten;
+    private final AtomicLong dotBytesWritten;
+    private final ConcurrentHashMap<String, AtomicLong> phaseNanos;
+    private volatile long startNanos;
+    private volatile boolean analyzersTimed;
+
+    private ScanStatistics() {
+        entriesRead = new AtomicLong();
+        bytesRead = new AtomicLong();
+        entriesInflated = new AtomicLong();
+        bytesInflated = new AtomicLong();
+        classesParsed = new AtomicLong();
+        classesReplayed = new AtomicLong();
+        callSitesResolved = new AtomicLong();
+        callSiteTargets = new AtomicLong();
+        dotFilesWritten = new AtomicLong();
+        dotBytesWritten = new AtomicLong();
+        phaseNanos = new ConcurrentHashMap<String, AtomicLong>();
+        startNanos = System.nanoTime();
+    }
+
+    public static ScanStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Register the shared instance with the platform MBeanServer (once).
+     */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (final JMException ex) {
+            System.err.println("Cannot register " + OBJECT_NAME + ": " + ex);
+        }
+    }
+
+    /**
+     * Have ArchiveScanners measure the time spent in each analyzer. Scans
+     * measure it anyway while a Flight Recorder recording has AnalyzerEvent
+     * enabled, and not at all otherwise.
+     */
+    public void setAnalyzersTimed(final boolean analyzersTimed) {
+        this.analyzersTimed = analyzersTimed;
+    }
+
+    public boolean isAnalyzersTimed() {
+        return analyzersTimed;
+    }
+
+    //--- recording
+
+    public void entryRead(final int size) {
+        entriesRead.incrementAndGet();
+        bytesRead.addAndGet(size);
+    }
+
+    public void entryInflated(final int size) {
+        entriesInflated.incrementAndGet();
+        bytesInflated.addAndGet(size);
+    }
+
+    public void classParsed() {
+        classesParsed.incrementAndGet();
+    }
+
+    public void classReplayed() {
+        classesReplayed.incrementAndGet();
+    }
+
+    public void callSiteResolved(final int targets) {
+        callSitesResolved.incrementAndGet();
+        callSiteTargets.addAndGet(targets);
+    }
+
+    public void dotWritten(final long bytes) {
+        dotFilesWritten.incrementAndGet();
+        dotBytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * Add time spent in the given phase; start is a System.nanoTime() taken
+     * at the beginning of the phase.
+     */
+    public void addTime(final String phase, final long start) {
+        addNanos(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * Add the given number of nanoseconds spent in the given phase.
+     */
+    public void addNanos(final String phase, final long nanos) {
+        AtomicLong total = phaseNanos.get(phase);
+        if (total == null) {
+            final AtomicLong newTotal = new AtomicLong();
+            total = phaseNanos.putIfAbsent(phase, newTotal);
+            if (total == null) {
+                total = newTotal;
+            }
+        }
+        total.addAndGet(nanos);
+    }
+
+    //--- ScanStatisticsMXBean
+
+    public long getEntriesRead() {
+        return entriesRead.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getEntriesInflated() {
+        return entriesInflated.get();
+    }
+
+    public long getBytesInflated() {
+        return bytesInflated.get();
+    }
+
+    public long getClassesParsed() {
+        return classesParsed.get();
+    }
+
+    public long getClassesReplayed() {
+        return classesReplayed.get();
+    }
+
+    public double getClassesPerSecond() {
+        final long nanos = System.nanoTime() - startNanos;
+        return nanos <= 0 ? 0 : (classesParsed.get() + classesReplayed.get()) * 1e9 / nanos;
+    }
+
+    public long getCallSitesResolved() {
+        return callSitesResolved.get();
+    }
+
+    public long getCallSiteTargets() {
+        return callSiteTargets.get();
+    }
+
+    public double getTargetsPerCallSite() {
+        final long sites = callSitesResolved.get();
+        return sites == 0 ? 0 : (double) callSiteTargets.get() / sites;
+    }
+
+    public long getDotFilesWritten() {
+        return dotFilesWritten.get();
+    }
+
+    public long getDotBytesWritten() {
+        return dotBytesWritten.get();
+    }
+
+    public Map<String, Long> getPhaseMillis() {
+        final TreeMap<String, Long> millis = new TreeMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> entry : phaseNanos.entrySet()) {
+            millis.put(entry.getKey(), entry.getValue().get() / 1000000);
+        }
+        return millis;
+    }
+
+    public void reset() {
+        entriesRead.set(0);
+        bytesRead.set(0);
+        entriesInflated.set(0);
+        bytesInflated.set(0);
+        classesParsed.set(0);
+        classesReplayed.set(0);
+        callSitesResolved.set(0);
+        callSiteTargets.set(0);
+        dotFilesWritten.set(0);
+        dotBytesWritten.set(0);
+        phaseNanos.clear();
+        startNanos = System.nanoTime();
+    }
+
+    public void printStatistics() {
+        printStatistics(System.out);
+    }
+
+    public void printStatistics(final PrintStream out) {
+        out.println("Entries read:        " + getEntriesRead() + " (" + getBytesRead() + " bytes)");
+        out.println("Entries inflated:    " + getEntriesInflated() + " (" + getBytesInflated() + " bytes)");
+        out.println("Classes parsed:      " + getClassesParsed());
+        out.println("Classes replayed:    " + getClassesReplayed());
+        out.println("Classes per second:  " + Math.round(getClassesPerSecond()));
+        out.println("Call sites resolved: " + getCallSitesResolved()
+                + " (" + getCallSiteTargets() + " targets, " + String.format("%.2f", getTargetsPerCallSite()) + " per site)");
+        out.println("DOT files written:   " + getDotFilesWritten() + " (" + getDotBytesWritten() + " bytes)");
+        for (final Map.Entry<String, Long> phase : getPhaseMillis().entrySet()) {
+            out.println("Time in " + phase.getKey() + ": " + phase.getValue() + " ms");
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+package asmtools.framework;
+
+import java.util.Map;
+
+/**
+ * The management interface of ScanStatistics, e.g. for JConsole.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public interface ScanStatisticsMXBean {
+
+    /**
+     * The number of class files read by ArchiveScanners (from the archive,
+     * a directory, or the JDK), not counting those replayed from a cache.
+     */
+    public long getEntriesRead();
+
+    /**
+     * The uncompressed size of the class files read.
+     */
+    public long getBytesRead();
+
+    /**
+     * The number of entries inflated by EntryReaders.
+     */
+    public long getEntriesInflated();
+
+    /**
+     * The uncompressed size of the entries inflated.
+     */
+    public long getBytesInflated();
+
+    /**
+     * The number of classes parsed by ArchiveScanners.
+     */
+    public long getClassesParsed();
+
+    /**
+     * The number of classes replayed from a ScanCache instead of parsed.
+     */
+    public long getClassesReplayed();
+
+    /**
+     * Classes parsed or replayed per second, since the statistics were
+     * created or reset.
+     */
+    public double getClassesPerSecond();
+
+    /**
+     * The number of call sites whose possible targets were computed.
+     */
+    public long getCallSitesResolved();
+
+    /**
+     * The number of possible target classes found for all call sites.
+     */
+    public long getCallSiteTargets();
+
+    /**
+     * The average number of possible target classes per call site.
+     */
+    public double getTargetsPerCallSite();
+
+    public long getDotFilesWritten();
+
+    public long getDotBytesWritten();
+
+    /**
+     * The time spent in each phase (like "read", "parse", "analyze", or the
+     * name of an analyzer), in milliseconds. Phases running on several
+     * threads at the same time add up the time of all threads.
+     */
+    public Map<String, Long> getPhaseMillis();
+
+    /**
+     * Set all counters to zero.
+     */
+    public void reset();
+
+}
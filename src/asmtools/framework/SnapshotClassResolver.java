@@ -0,0 +1,55 @@
+package asmtools.framework;
+
+/**
+ * A ClassResolver that looks classes up in a HierarchySnapshot, e.g. the
+ * platform index written by PlatformIndexer. Only the classes a hierarchy
+ * actually asks for (and their super types) are read from the snapshot.
+ * <p/>
+ * The subtypes of a class are read from the snapshot when somebody first
+ * asks for them, so analyses walking down the hierarchy (e.g. CHA from
+ * java/util/List) see the implementations in the snapshot too.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class SnapshotClassResolver implements ClassResolver {
+
+    private final HierarchySnapshot snapshot;
+
+    public SnapshotClassResolver(final HierarchySnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public void resolve(final ClassHierarchy hierarchy, final ClassType classType) throws TypeInconsistencyException {
+        final int c = snapshot.findClass(classType.getInternalName());
+        if (c < 0 || !snapshot.isResolved(c) || !classType.claim()) {
+            return;
+        }
+        classType.setModifiers(snapshot.getClassModifiers(c));
+        classType.setLocation(snapshot.getLocation(c));
+        final int superClass = snapshot.getSuperClass(c);
+        if (superClass >= 0) {
+            classType.setSuperClass(hierarchy.getOrCreateClass(snapshot.getClassName(superClass)));
+        }
+        for (int i = 0; i < snapshot.getInterfaceCount(c); i++) {
+            classType.addInterface(hierarchy.getOrCreateClass(snapshot.getClassName(snapshot.getInterface(c, i))));
+        }
+        for (int i = 0; i < snapshot.getMethodCount(c); i++) {
+            final int m = snapshot.getMethod(c, i);
+            classType.addMethod(new Method(classType,
+                    snapshot.getMethodName(m), snapshot.getMethodDescriptor(m), snapshot.getMethodModifiers(m)));
+        }
+        classType.setResolved();
+    }
+
+    public void resolveSubTypes(final ClassHierarchy hierarchy, final ClassType classType)
+            throws TypeInconsistencyException {
+        final int c = snapshot.findClass(classType.getInternalName());
+        if (c < 0) {
+            return;
+        }
+        for (int i = 0; i < snapshot.getSubTypeCount(c); i++) {
+            hierarchy.getOrCreateClass(snapshot.getClassName(snapshot.getSubType(c, i)));
+        }
+    }
+
+}
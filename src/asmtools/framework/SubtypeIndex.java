@@ -0,0 +1,493 @@
+package asmtools.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers "is A a subtype of B?" in constant time and enumerates all
+ * (transitive) subtypes of a type without allocating, for one version of a
+ * ClassHierarchy (see ClassHierarchy.getSubtypeIndex()).
+ * <p/>
+ * Every class gets a position: the pre-order number of a depth-first walk
+ * of the class tree (the superclass edges). The subclasses of a class then
+ * have the positions right after the class, up to its end position. The
+ * subtypes of an interface are scattered over the positions, so each
+ * interface has a bitset of the positions of its subtypes; the bitset only
+ * spans the words between the first and the last subtype. (An unresolved
+ * type does not know it is an interface, so every type with a subtype that
+ * does not extend it gets a bitset.)
+ * <p/>
+ * The index of a view of a ColumnarHierarchy is built from the columns of
+ * the store: it covers all classes of the store, but their ClassTypes are
+ * only created when getType() is asked for them.
+ * <p/>
+ * Subtyping is reflexive: every type is a subtype of itself. Types created
+ * after the index was built have no position and are only subtypes of
+ * themselves (they are not resolved yet: resolving one changes the version
+ * of the hierarchy, so it gets a new index).
+ * <p/>
+ * A SubtypeIndex is immutable, so it can be shared between threads.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class SubtypeIndex {
+
+    private final ClassHierarchy hierarchy;
+    private final ColumnarHierarchy store;
+    private final int version;
+    // name ID -> position, or -1
+    private final int[] positionByNameId;
+    // position -> name ID of the type
+    private final int[] nameIdByPosition;
+    // position -> last position of its subclasses (the position itself for a leaf)
+    private final int[] endByPosition;
+    // position -> bitset of the positions of the subtypes of an interface (null for classes)
+    private final long[][] bitsByPosition;
+    // position -> index of the first position in the word bitsByPosition[position][0]
+    private final int[] firstWordByPosition;
+
+    /**
+     * Index the classes of the hierarchy.
+     */
+    SubtypeIndex(final ClassHierarchy hierarchy) {
+        this.hierarchy = hierarchy;
+        this.store = null;
+        version = hierarchy.getSubtypesVersion();
+        // classes created while the index is built (by other threads) are left out
+        final List<ClassType> classTypes = new ArrayList<ClassType>();
+        for (final Type type : hierarchy.getTypes()) {
+            if (type instanceof ClassType) {
+                classTypes.add((ClassType) type);
+            }
+        }
+        final Graph graph = new Graph(classTypes.size());
+        for (final ClassType classType : classTypes) {
+            graph.addNode(classType.getNameId());
+        }
+        for (final ClassType classType : classTypes) {
+            graph.addSuperTypes(classType);
+        }
+        final int classCount = graph.nodeCount;
+        nameIdByPosition = new int[classCount];
+        endByPosition = new int[classCount];
+        bitsByPosition = new long[classCount][];
+        firstWordByPosition = new int[classCount];
+        positionByNameId = index(graph);
+    }
+
+    /**
+     * Index the classes of a view of the given store: all classes of the
+     * store, and the classes of the view that are not in the store.
+     */
+    SubtypeIndex(final ClassHierarchy hierarchy, final ColumnarHierarchy store) {
+        this.hierarchy = hierarchy;
+        this.store = store;
+        version = hierarchy.getSubtypesVersion();
+        final int rowCount = store.getClassCount();
+        // the supertypes outside the store (e.g. in the JDK) need their ClassTypes to know their supertypes
+        for (int c = 0; c < rowCount; c++) {
+            createOutsideStore(store.getSuperClassNameId(c));
+            for (int i = 0; i < store.getInterfaceCount(c); i++) {
+                createOutsideStore(store.getInterfaceNameId(c, i));
+            }
+        }
+        // and the classes outside the store get their subtypes from the fallback resolver
+        hierarchy.resolveAllSubTypes(store);
+        final List<ClassType> outside = new ArrayList<ClassType>();
+        for (final Type type : hierarchy.getTypes()) {
+            if (type instanceof ClassType && store.findClass(((ClassType) type).getNameId()) < 0) {
+                outside.add((ClassType) type);
+            }
+        }
+        // the rows of the store are the first nodes
+        final Graph graph = new Graph(rowCount + outside.size());
+        for (int c = 0; c < rowCount; c++) {
+            graph.addNode(store.getClassNameId(c));
+        }
+        for (final ClassType classType : outside) {
+            graph.addNode(classType.getNameId());
+        }
+        for (int c = 0; c < rowCount; c++) {
+            graph.addSuperClass(c, store.getSuperClassNameId(c));
+            for (int i = 0; i < store.getInterfaceCount(c); i++) {
+                graph.addInterface(c, store.getInterfaceNameId(c, i));
+            }
+        }
+        for (final ClassType classType : outside) {
+            graph.addSuperTypes(classType);
+        }
+        final int classCount = graph.nodeCount;
+        nameIdByPosition = new int[classCount];
+        endByPosition = new int[classCount];
+        bitsByPosition = new long[classCount][];
+        firstWordByPosition = new int[classCount];
+        positionByNameId = index(graph);
+    }
+
+    private void createOutsideStore(final int nameId) {
+        if (nameId >= 0 && store.findClass(nameId) < 0) {
+            try {
+                hierarchy.getOrCreateClass(nameId);
+            } catch (final TypeInconsistencyException ex) {
+                System.err.println(ex);
+            }
+        }
+    }
+
+    /**
+     * Number the nodes of the graph and compute the bitsets of the
+     * interfaces; return the positions by name ID.
+     */
+    private int[] index(final Graph graph) {
+        final int nodeCount = graph.nodeCount;
+        graph.computeSubTypes();
+        // -1 for nodes in (invalid) cyclic hierarchies, which are never reached
+        final int[] positionByNode = new int[nodeCount];
+        Arrays.fill(positionByNode, -1);
+        final int[] nodeByPosition = new int[nodeCount];
+        Arrays.fill(nodeByPosition, -1);
+        int position = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            if (graph.superClassByNode[node] == -1) {
+                position = number(graph, node, position, positionByNode, nodeByPosition);
+            }
+        }
+        final boolean[] needsBits = new boolean[nodeCount];
+        for (int p = 0; p < position; p++) {
+            needsBits[p] = hasInterfaceSubtypes(graph, nodeByPosition[p]);
+        }
+        for (int p = 0; p < position; p++) {
+            if (needsBits[p]) {
+                computeBits(graph, p, needsBits, positionByNode, nodeByPosition);
+            }
+        }
+        final int[] positions = new int[graph.nodeByNameId.length];
+        Arrays.fill(positions, -1);
+        for (int node = 0; node < nodeCount; node++) {
+            positions[graph.nameIdByNode[node]] = positionByNode[node];
+        }
+        return positions;
+    }
+
+    /**
+     * Does the given node have a subtype that implements resp. extends it as
+     * an interface?
+     */
+    private static boolean hasInterfaceSubtypes(final Graph graph, final int node) {
+        for (int i = graph.firstSubType[node]; i < graph.firstSubType[node + 1]; i++) {
+            if (graph.superClassByNode[graph.subTypes[i]] != node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Give the node and its subclasses consecutive positions, starting at
+     * position, and return the next free position.
+     */
+    private int number(final Graph graph,
+                       final int node,
+                       final int position,
+                       final int[] positionByNode,
+                       final int[] nodeByPosition) {
+        positionByNode[node] = position;
+        nodeByPosition[position] = node;
+        nameIdByPosition[position] = graph.nameIdByNode[node];
+        int next = position + 1;
+        for (int i = graph.firstSubType[node]; i < graph.firstSubType[node + 1]; i++) {
+            final int subType = graph.subTypes[i];
+            if (graph.superClassByNode[subType] == node && positionByNode[subType] == -1) {
+                next = number(graph, subType, next, positionByNode, nodeByPosition);
+            }
+        }
+        endByPosition[position] = next - 1;
+        return next;
+    }
+
+    /**
+     * Compute the bitset of the interface at the given position, and those of
+     * its subinterfaces first.
+     */
+    private long[] computeBits(final Graph graph,
+                               final int position,
+                               final boolean[] needsBits,
+                               final int[] positionByNode,
+                               final int[] nodeByPosition) {
+        if (bitsByPosition[position] != null) {
+            return bitsByPosition[position];
+        }
+        // mark as in progress, for (invalid) cyclic hierarchies
+        bitsByPosition[position] = new long[0];
+        final int node = nodeByPosition[position];
+        final List<long[]> subBits = new ArrayList<long[]>();
+        final List<Integer> subFirstWords = new ArrayList<Integer>();
+        int min = position;
+        int max = position;
+        for (int i = graph.firstSubType[node]; i < graph.firstSubType[node + 1]; i++) {
+            final int p = positionByNode[graph.subTypes[i]];
+            if (p == -1) {
+                continue;
+            }
+            if (needsBits[p]) {
+                final long[] bits = computeBits(graph, p, needsBits, positionByNode, nodeByPosition);
+                if (bits.length > 0) {
+                    subBits.add(bits);
+                    subFirstWords.add(firstWordByPosition[p]);
+                    min = Math.min(min, firstWordByPosition[p] * 64);
+                    max = Math.max(max, (firstWordByPosition[p] + bits.length) * 64 - 1);
+                }
+            } else {
+                min = Math.min(min, p);
+                max = Math.max(max, endByPosition[p]);
+            }
+        }
+        final int firstWord = min / 64;
+        final long[] bits = new long[max / 64 - firstWord + 1];
+        setRange(bits, firstWord, position, position);
+        for (int i = graph.firstSubType[node]; i < graph.firstSubType[node + 1]; i++) {
+            final int p = positionByNode[graph.subTypes[i]];
+            if (p != -1 && !needsBits[p]) {
+                setRange(bits, firstWord, p, endByPosition[p]);
+            }
+        }
+        for (int i = 0; i < subBits.size(); i++) {
+            final long[] sub = subBits.get(i);
+            final int offset = subFirstWords.get(i) - firstWord;
+            for (int w = 0; w < sub.length; w++) {
+                bits[offset + w] |= sub[w];
+            }
+        }
+        bitsByPosition[position] = bits;
+        firstWordByPosition[position] = firstWord;
+        return bits;
+    }
+
+    private static void setRange(final long[] bits, final int firstWord, final int from, final int to) {
+        for (int p = from; p <= to; p++) {
+            bits[p / 64 - firstWord] |= 1L << p;
+        }
+    }
+
+    /**
+     * Get the version of the hierarchy this index was built for (it only
+     * changes when a class is resolved that the index does not cover).
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Does this index already know the supertypes of the given class, even
+     * before it is resolved? (True for the classes in the store of a view.)
+     */
+    boolean covers(final ClassType type) {
+        return store != null && store.findClass(type.getNameId()) >= 0;
+    }
+
+    /**
+     * Get the position of the given type, or -1 if it is not indexed.
+     */
+    public int getPosition(final ClassType type) {
+        final int nameId = type.getNameId();
+        return nameId < positionByNameId.length ? positionByNameId[nameId] : -1;
+    }
+
+    /**
+     * Get the type at the given position (in a view of a ColumnarHierarchy,
+     * its ClassType is created if nobody asked for it before).
+     */
+    public ClassType getType(final int position) {
+        try {
+            return hierarchy.getOrCreateClass(nameIdByPosition[position]);
+        } catch (final TypeInconsistencyException ex) {
+            // it was a class when the index was built
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Is subType a (reflexive, transitive) subtype of superType?
+     */
+    public boolean isSubtypeOf(final ClassType subType, final ClassType superType) {
+        if (subType == superType) {
+            return true;
+        }
+        final int sub = getPosition(subType);
+        final int zuper = getPosition(superType);
+        if (sub == -1 || zuper == -1) {
+            return false;
+        }
+        final long[] bits = bitsByPosition[zuper];
+        if (bits == null) {
+            return sub >= zuper && sub <= endByPosition[zuper];
+        }
+        final int word = sub / 64 - firstWordByPosition[zuper];
+        return word >= 0 && word < bits.length && (bits[word] & (1L << sub)) != 0;
+    }
+
+    /**
+     * Get the position of the first subtype of type after the given
+     * position, or -1 if there is none (or type is not indexed). Start with
+     * position -1; the first subtype is the type itself. E.g.:
+     * <pre>
+     * for (int p = index.nextSubtype(type, -1); p != -1; p = index.nextSubtype(type, p)) {
+     *     ClassType subType = index.getType(p);
+     * }
+     * </pre>
+     */
+    public int nextSubtype(final ClassType type, final int position) {
+        final int zuper = getPosition(type);
+        if (zuper == -1) {
+            return -1;
+        }
+        final long[] bits = bitsByPosition[zuper];
+        if (bits == null) {
+            if (position < zuper) {
+                return zuper;
+            }
+            return position < endByPosition[zuper] ? position + 1 : -1;
+        }
+        final int firstWord = firstWordByPosition[zuper];
+        final int from = Math.max(position + 1, firstWord * 64);
+        int word = from / 64 - firstWord;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long w = bits[word] & (-1L << from);
+        while (w == 0) {
+            word++;
+            if (word == bits.length) {
+                return -1;
+            }
+            w = bits[word];
+        }
+        return (firstWord + word) * 64 + Long.numberOfTrailingZeros(w);
+    }
+
+    /**
+     * Get the number of (reflexive, transitive) subtypes of type.
+     */
+    public int getSubtypeCount(final ClassType type) {
+        final int zuper = getPosition(type);
+        if (zuper == -1) {
+            return 1;
+        }
+        final long[] bits = bitsByPosition[zuper];
+        if (bits == null) {
+            return endByPosition[zuper] - zuper + 1;
+        }
+        int count = 0;
+        for (final long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+
+    /**
+     * The classes to index as nodes numbered from 0, and their direct
+     * supertypes, while the index is built.
+     */
+    private static final class Graph {
+
+        // node -> name ID
+        final int[] nameIdByNode;
+        int nodeCount;
+        // name ID -> node + 1, or 0
+        int[] nodeByNameId;
+        // node -> node of the superclass, or -1
+        final int[] superClassByNode;
+        // the edges (subtype node, supertype node), superclasses and interfaces
+        private int[] edges;
+        private int edgeCount;
+        // node -> first index in subTypes, nodeCount + 1 entries (set by computeSubTypes())
+        int[] firstSubType;
+        int[] subTypes;
+
+        Graph(final int capacity) {
+            nameIdByNode = new int[capacity];
+            nodeByNameId = new int[1024];
+            superClassByNode = new int[capacity];
+            Arrays.fill(superClassByNode, -1);
+            edges = new int[2 * capacity];
+        }
+
+        void addNode(final int nameId) {
+            if (nameId >= nodeByNameId.length) {
+                nodeByNameId = Arrays.copyOf(nodeByNameId, Math.max(2 * nodeByNameId.length, nameId + 1));
+            }
+            nameIdByNode[nodeCount] = nameId;
+            nodeByNameId[nameId] = ++nodeCount;
+        }
+
+        private int getNode(final int nameId) {
+            return nameId >= 0 && nameId < nodeByNameId.length ? nodeByNameId[nameId] - 1 : -1;
+        }
+
+        /**
+         * Add the superclass and interfaces of the given class, if it is
+         * resolved (so they are set).
+         */
+        void addSuperTypes(final ClassType classType) {
+            if (!classType.isResolved()) {
+                return;
+            }
+            final int node = getNode(classType.getNameId());
+            final ClassType superClass = classType.getSuperClass();
+            if (superClass != null) {
+                addSuperClass(node, superClass.getNameId());
+            }
+            for (final ClassType interfa : classType.getInterfaces()) {
+                addInterface(node, interfa.getNameId());
+            }
+        }
+
+        void addSuperClass(final int node, final int superClassNameId) {
+            final int superClass = getNode(superClassNameId);
+            if (superClass != -1) {
+                superClassByNode[node] = superClass;
+                addEdge(node, superClass);
+            }
+        }
+
+        void addInterface(final int node, final int interfaceNameId) {
+            final int interfa = getNode(interfaceNameId);
+            if (interfa != -1) {
+                addEdge(node, interfa);
+            }
+        }
+
+        private void addEdge(final int subType, final int superType) {
+            if (2 * edgeCount == edges.length) {
+                edges = Arrays.copyOf(edges, 2 * edges.length + 2);
+            }
+            edges[2 * edgeCount] = subType;
+            edges[2 * edgeCount + 1] = superType;
+            edgeCount++;
+        }
+
+        /**
+         * Turn the edges into the direct subtypes of each node, like a sparse
+         * matrix: count, then turn counts into start indices, then fill.
+         */
+        void computeSubTypes() {
+            firstSubType = new int[nodeCount + 1];
+            for (int e = 0; e < edgeCount; e++) {
+                firstSubType[edges[2 * e + 1] + 1]++;
+            }
+            for (int node = 0; node < nodeCount; node++) {
+                firstSubType[node + 1] += firstSubType[node];
+            }
+            subTypes = new int[edgeCount];
+            final int[] next = Arrays.copyOf(firstSubType, nodeCount);
+            for (int e = 0; e < edgeCount; e++) {
+                subTypes[next[edges[2 * e + 1]]++] = edges[2 * e];
+            }
+            edges = null;
+        }
+
+    }
+
+}
@@ -0,0 +1,156 @@
+package asmtools.framework;
+
+/**
+ * Interns names (internal class names, method names, descriptors) to dense
+ * int IDs: the first distinct name gets ID 0, the next one 1, and so on.
+ * Each distinct name is stored once, and the model (ClassType, Method,
+ * CallSite) stores IDs instead of strings, so names can be compared as ints
+ * and used as array indices.
+ * <p/>
+ * A SymbolTable is thread-safe. Looking up a name (and interning a name that
+ * is already there) does not lock; only adding a new name does. A reader
+ * that does not (yet) see a name another thread added takes the lock and
+ * looks again.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class SymbolTable {
+
+    // the arrays are replaced when they grow, and entries are written before the slot pointing to them
+    private volatile String[] symbols;
+    private volatile int[] hashes;
+    private volatile int size;
+    // open addressing with linear probing: ID + 1, or 0 for an empty slot
+    private volatile int[] slots;
+
+    public SymbolTable() {
+        symbols = new String[1024];
+        hashes = new int[1024];
+        slots = new int[2048];
+    }
+
+    /**
+     * Get the ID of the given name, adding the name if it is new.
+     */
+    public int intern(final String symbol) {
+        final int id = probe(symbol);
+        return id != -1 ? id : add(symbol);
+    }
+
+    private synchronized int add(final String symbol) {
+        final int hash = symbol.hashCode();
+        final int[] slots = this.slots;
+        final int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            if (hashes[entry - 1] == hash && symbols[entry - 1].equals(symbol)) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        final int id = size;
+        if (id == symbols.length) {
+            final String[] newSymbols = new String[2 * id];
+            System.arraycopy(symbols, 0, newSymbols, 0, id);
+            final int[] newHashes = new int[2 * id];
+            System.arraycopy(hashes, 0, newHashes, 0, id);
+            hashes = newHashes;
+            symbols = newSymbols;
+        }
+        symbols[id] = symbol;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        size = id + 1;
+        // keep the load factor at most 1/2
+        if (2 * size > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Get the ID of the given name, or -1 if it was never interned.
+     */
+    public int find(final String symbol) {
+        final int id = probe(symbol);
+        if (id != -1) {
+            return id;
+        }
+        synchronized (this) {
+            return probe(symbol);
+        }
+    }
+
+    /**
+     * Look up the name without locking; -1 if it is not there, or not
+     * visible to this thread yet.
+     */
+    private int probe(final String symbol) {
+        final int hash = symbol.hashCode();
+        final int[] slots = this.slots;
+        final String[] symbols = this.symbols;
+        final int[] hashes = this.hashes;
+        final int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        int entry;
+        while ((entry = slots[slot]) != 0) {
+            final int id = entry - 1;
+            if (id < symbols.length && id < hashes.length && hashes[id] == hash) {
+                final String candidate = symbols[id];
+                if (candidate != null && candidate.equals(symbol)) {
+                    return id;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the name with the given ID.
+     */
+    public String get(final int id) {
+        final String[] symbols = this.symbols;
+        if (id >= 0 && id < symbols.length && symbols[id] != null) {
+            return symbols[id];
+        }
+        synchronized (this) {
+            if (id < 0 || id >= size) {
+                throw new IndexOutOfBoundsException("No symbol with ID " + id);
+            }
+            return this.symbols[id];
+        }
+    }
+
+    /**
+     * Get the number of names, i.e. the smallest ID not in use.
+     */
+    public int size() {
+        return size;
+    }
+
+    // called with the lock held
+    private void rehash() {
+        final int[] newSlots = new int[2 * slots.length];
+        final int mask = newSlots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = id + 1;
+        }
+        slots = newSlots;
+    }
+
+    /**
+     * Spread the bits of a String hash code, which are weak in the low bits
+     * for similar names.
+     */
+    private static int mix(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,149 @@
+package asmtools.framework;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set of possible target classes of call sites. A
+ * ClassHierarchy hash-conses its TargetSets (see
+ * ClassHierarchy.getTargetSet()): equal sets are the same object, so the
+ * many call sites with the same targets (e.g. all calls of List.add) share
+ * one set.
+ * <p/>
+ * The classes are kept in an array ordered by the IDs of their names, so
+ * iteration order does not depend on identity hash codes, and contains()
+ * is a binary search.
+ *
+ * @author Matthias.Hauswirth@usi.ch
+ */
+public final class TargetSet extends AbstractSet<ClassType> {
+
+    public static final TargetSet EMPTY = new TargetSet(new ClassType[0]);
+
+    private static final Comparator<ClassType> BY_NAME_ID = new Comparator<ClassType>() {
+        public int compare(final ClassType a, final ClassType b) {
+            return a.getNameId() < b.getNameId() ? -1 : (a.getNameId() == b.getNameId() ? 0 : 1);
+        }
+    };
+
+    // ordered by name ID, no duplicates
+    private final ClassType[] classes;
+    private final int hashCode;
+
+    private TargetSet(final ClassType[] classes) {
+        this.classes = classes;
+        // as specified by Set.hashCode()
+        int hash = 0;
+        for (final ClassType classType : classes) {
+            hash += classType.hashCode();
+        }
+        hashCode = hash;
+    }
+
+    /**
+     * Create a set of the given classes, not hash-consed yet.
+     */
+    static TargetSet of(final Collection<ClassType> classes) {
+        final ClassType[] sorted = classes.toArray(new ClassType[classes.size()]);
+        Arrays.sort(sorted, BY_NAME_ID);
+        int length = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (length == 0 || sorted[length - 1] != sorted[i]) {
+                sorted[length++] = sorted[i];
+            }
+        }
+        return new TargetSet(length == sorted.length ? sorted : Arrays.copyOf(sorted, length));
+    }
+
+    /**
+     * Create a set of the classes of this set and the given class, not
+     * hash-consed yet (this set if it already contains the class).
+     */
+    TargetSet with(final ClassType classType) {
+        final int index = indexOf(classType);
+        if (index >= 0) {
+            return this;
+        }
+        final int insertion = -index - 1;
+        final ClassType[] newClasses = new ClassType[classes.length + 1];
+        System.arraycopy(classes, 0, newClasses, 0, insertion);
+        newClasses[insertion] = classType;
+        System.arraycopy(classes, insertion, newClasses, insertion + 1, classes.length - insertion);
+        return new TargetSet(newClasses);
+    }
+
+    /**
+     * Get the index of the class (there is one class per name in a
+     * hierarchy), or (-(insertion point) - 1) like Arrays.binarySearch().
+     */
+    private int indexOf(final ClassType classType) {
+        final int nameId = classType.getNameId();
+        int low = 0;
+        int high = classes.length - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int middleNameId = classes[middle].getNameId();
+            if (middleNameId < nameId) {
+                low = middle + 1;
+            } else if (middleNameId > nameId) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    public boolean contains(final Object o) {
+        if (!(o instanceof ClassType)) {
+            return false;
+        }
+        final int index = indexOf((ClassType) o);
+        return index >= 0 && classes[index] == o;
+    }
+
+    public int size() {
+        return classes.length;
+    }
+
+    public Iterator<ClassType> iterator() {
+        return new Iterator<ClassType>() {
+            private int next;
+
+            public boolean hasNext() {
+                return next < classes.length;
+            }
+
+            public ClassType next() {
+                if (next >= classes.length) {
+                    throw new NoSuchElementException();
+                }
+                return classes[next++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("TargetSets are immutable");
+            }
+        };
+    }
+
+    public boolean equals(final Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof TargetSet) {
+            final TargetSet other = (TargetSet) o;
+            return hashCode == other.hashCode && Arrays.equals(classes, other.classes);
+        }
+        return super.equals(o);
+    }
+
+    public int hashCode() {
+        return hashCode;
+    }
+
+}